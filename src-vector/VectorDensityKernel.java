@@ -0,0 +1,99 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * DensityKernel on the incubating Vector API: the shifted ANDs and adds of ScalarDensityKernel are done on as many
+ * cells at once as the widest int vector of the CPU holds (8 with AVX2, 16 with AVX-512).
+ *
+ * Needs --add-modules jdk.incubator.vector at compile and run time, so it is built apart from src, into the same
+ * output; DensityKernel.create() falls back to the scalar kernel without it. Run this class to check it against the scalar kernel on random boards:
+ * java --add-modules jdk.incubator.vector VectorDensityKernel [boards]
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class VectorDensityKernel implements DensityKernel {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    private static final int PAD = ScalarDensityKernel.PAD;
+    private static final int PADDED = ScalarDensityKernel.PADDED;
+
+    private static final byte MISS = (byte) CellState.Miss.ordinal();
+    private static final byte SUNK = (byte) CellState.Sunk.ordinal();
+
+    // Same buffers as ScalarDensityKernel
+    private final int[] free = new int[PADDED];
+    private final int[] starts = new int[PADDED];
+
+    // Density of the padded board, so that whole vectors can be stored past the last cell
+    private final int[] total = new int[PADDED];
+
+    @Override
+    public void computeDensity(byte[] states, int[] multiplicity, int[] density) {
+        for (int cell = 0; cell < CELLS; ++cell) free[PAD + cell] = states[cell] != MISS && states[cell] != SUNK ? 1 : 0;
+
+        IntVector zero = IntVector.zero(SPECIES);
+        for (int cell = PAD; cell < PAD + CELLS; cell += SPECIES.length()) zero.intoArray(total, cell);
+
+        for (int length = 1; length <= BOARD_SIZE; ++length) {
+            int weight = multiplicity[length];
+            if (weight == 0) continue;
+
+            addPlacements(length, 1, ScalarDensityKernel.ROW_STARTS[length], weight);
+            addPlacements(length, BOARD_SIZE, null, weight);
+        }
+
+        System.arraycopy(total, PAD, density, 0, CELLS);
+    }
+
+    private void addPlacements(int length, int step, int[] rowStarts, int weight) {
+        for (int cell = PAD; cell < PAD + CELLS; cell += SPECIES.length()) {
+            IntVector legal = rowStarts != null ? IntVector.fromArray(SPECIES, rowStarts, cell) : IntVector.broadcast(SPECIES, 1);
+            for (int l = 0; l < length; ++l) legal = legal.and(IntVector.fromArray(SPECIES, free, cell + l * step));
+            legal.intoArray(starts, cell);
+        }
+
+        for (int cell = PAD; cell < PAD + CELLS; cell += SPECIES.length()) {
+            IntVector covering = IntVector.fromArray(SPECIES, starts, cell);
+            for (int l = 1; l < length; ++l) covering = covering.add(IntVector.fromArray(SPECIES, starts, cell - l * step));
+            IntVector.fromArray(SPECIES, total, cell).add(covering.mul(weight)).intoArray(total, cell);
+        }
+    }
+
+    // Usage: VectorDensityKernel [boards]
+    public static void main(String[] args) {
+        int boards = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        long seed = A6.MASTERSEED;
+
+        DensityKernel scalar = new ScalarDensityKernel();
+        DensityKernel vector = new VectorDensityKernel();
+        byte[] states = new byte[CELLS];
+        int[] multiplicity = new int[BOARD_SIZE + 1];
+        int[] expected = new int[CELLS];
+        int[] actual = new int[CELLS];
+
+        for (int board = 0; board < boards; ++board) {
+            // Random states with a random share of blocked cells, and a random fleet of up to 5 ships
+            long random = GameRunner.gameSeed(seed, board);
+            int blocked = (int) (random >>> 57);
+            for (int cell = 0; cell < CELLS; ++cell) {
+                random = GameRunner.gameSeed(random, cell);
+                states[cell] = (byte) ((random >>> 57) < blocked ? 2 + (random & 1) : random & 1);
+            }
+
+            for (int length = 0; length <= BOARD_SIZE; ++length) multiplicity[length] = 0;
+            for (int ship = 0; ship < 5; ++ship) {
+                random = GameRunner.gameSeed(random, ship);
+                ++multiplicity[(int) ((random >>> 32) % (BOARD_SIZE + 1))];
+            }
+
+            scalar.computeDensity(states, multiplicity, expected);
+            vector.computeDensity(states, multiplicity, actual);
+            for (int cell = 0; cell < CELLS; ++cell)
+                if (expected[cell] != actual[cell])
+                    throw new IllegalStateException("Board " + board + ", cell " + cell + ": scalar " + expected[cell] + ", vector " + actual[cell]);
+        }
+
+        System.out.printf("%d random boards, %d lanes - vector kernel matches the scalar kernel\n", boards, SPECIES.length());
+    }
+}
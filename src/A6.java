@@ -1,6 +1,9 @@
-
 import battleship.BattleShip;
 
+import javax.management.JMException;
+import java.io.IOException;
+import java.nio.file.Path;
+
 /**
  * Starting code for COMP10205 - Assignment#6
  *
@@ -10,29 +13,110 @@ import battleship.BattleShip;
 public class A6 {
     static final int NUMBEROFGAMES = 10000;
 
-    public static void startingSolution() {
-        int totalShots = 0;
-        System.out.println(BattleShip.version());
+    // Every game seed is derived from this seed, so runs are reproducible
+    static final long MASTERSEED = 10205;
 
+    // Per-shot instrumentation, recording only when started with -Dmetrics=true or switched on over JMX
+    static final BotMetrics METRICS = new BotMetrics(Boolean.getBoolean("metrics"));
 
-        for (int game = 0; game < NUMBEROFGAMES; game++) {
+    public static void startingSolution() throws IOException {
+        startingSolution(Runtime.getRuntime().availableProcessors(), ProbabilityMode.Bitboard, null, null);
+    }
 
-            BattleShip battleShip = new BattleShip();
-            DrInvisible_Bot bot = new DrInvisible_Bot(battleShip);
+    public static void startingSolution(int parallelism, ProbabilityMode probabilityMode, OpeningBook openingBook,
+                                        TranspositionCache transpositionCache) throws IOException {
+        // The API jar places its ships at random, so its games are not reproducible from the master seed
+        boolean apiGames = "api".equals(System.getProperty("games"));
+        if (apiGames) System.out.println("BattleShip API " + BattleShip.version());
+        else System.out.printf("FastBattleShip simulator, master seed %d\n", MASTERSEED);
 
-            while (!battleShip.allSunk()) {
-                bot.fireShot();
+        GameRunner runner = new GameRunner(NUMBEROFGAMES, MASTERSEED, parallelism, apiGames ? seed -> new JarBattleShip() : null,
+                probabilityMode);
+        runner.setOpeningBook(openingBook);
+        runner.setTranspositionCache(transpositionCache);
+        runner.setMetrics(METRICS);
+        int boardSize = Integer.getInteger("board", VirtualField.DEFAULT_BOARD_SIZE);
+        int[] shipSizes = fleet(System.getProperty("fleet"));
+        if (System.getProperty("board") != null || System.getProperty("fleet") != null) {
+            if (apiGames) throw new IllegalArgumentException("The API only plays the default board and fleet");
+            runner.setBoard(boardSize, shipSizes);
+        }
+        int lookahead = Integer.getInteger("lookahead", 0);
+        if (lookahead > 0) runner.setLookahead(lookahead, Long.getLong("lookahead.budget", Long.MAX_VALUE));
+        runner.setClusterSinking("cluster".equals(System.getProperty("sink")));
+        String priorFile = System.getProperty("prior");
+        PlacementPrior placementPrior = priorFile != null ? PlacementPrior.loadOrCreate(Path.of(priorFile), boardSize) : null;
+        boolean learn = !"false".equals(System.getProperty("prior.learn"));
+        runner.setPlacementPrior(placementPrior, learn);
+        String resultFile = System.getProperty("results");
+        ResultStore resultStore = resultFile != null ? runner.openResultStore(Path.of(resultFile)) : null;
 
-            }
+        String traceFile = System.getProperty("trace");
+        if (traceFile != null && apiGames) throw new IllegalArgumentException("Games of the API cannot be traced, they have no seed");
+        // A new trace file replaces the old one, which the trace positions of the recorded games point into
+        if (traceFile != null && resultStore != null && resultStore.getSlots() > 0) {
+            resultStore.close();
+            throw new IllegalArgumentException(resultFile + " already holds games, whose traces -Dtrace would overwrite");
+        }
+        runner.setTraceFile(traceFile != null ? Path.of(traceFile) : null);
+        GameRunner.Result result = runner.run();
+
+        // A resumed campaign only plays the games its store did not hold, so the average is taken over the store
+        PairedEvaluation.Distribution distribution = resultStore != null ? resultStore.summarize(boardSize * boardSize) : null;
+        System.out.printf("DrInvisible_Bot - The Average # of Shots required in %d games to sink all Ships = %.2f\n",
+                distribution != null ? distribution.getGames() : result.games,
+                distribution != null ? distribution.getMean() : result.averageShots());
+        System.out.printf("%d threads, %s - %.0f games/sec\n", parallelism,
+                placementPrior != null ? "WeightedField" : probabilityMode, result.gamesPerSecond());
 
-            int gameShots = battleShip.totalShotsTaken();
-            totalShots += gameShots;
+        if (placementPrior != null && learn) {
+            placementPrior.save();
+            System.out.printf("Placement prior - %d games learned, saved to %s\n", placementPrior.getGames(), priorFile);
         }
 
-        System.out.printf("DrInvisible_Bot - The Average # of Shots required in %d games to sink all Ships = %.2f\n", NUMBEROFGAMES, (double) totalShots / NUMBEROFGAMES);
+        if (resultStore != null) {
+            resultStore.close();
+            System.out.printf("Result store - %d games played by this run, %d in %s, %s\n", result.games,
+                    distribution.getGames(), resultFile, distribution);
+        }
+
+        if (transpositionCache != null)
+            System.out.printf("Transposition cache - %d hits, %d misses, %d evictions\n", transpositionCache.getHits(),
+                    transpositionCache.getMisses(), transpositionCache.getEvictions());
+
+        if (METRICS.getHistogram(BotPhase.FireShot).getCount() > 0) System.out.print(METRICS.snapshot());
+    }
+
+    /**
+     * Parse a fleet such as "2,3,3,4,5"
+     *
+     * @param fleet null for the default fleet
+     * @return
+     */
+    static int[] fleet(String fleet) {
+        if (fleet == null) return BattleShip.DEFAULTSHIPSIZES.clone();
+
+        String[] sizes = fleet.split(",");
+        int[] shipSizes = new int[sizes.length];
+        for (int i = 0; i < sizes.length; ++i) shipSizes[i] = Integer.parseInt(sizes[i].trim());
+        return shipSizes;
     }
 
-    public static void main(String[] args) {
-        startingSolution();
+    // Usage: A6 [threads] [probability mode] [opening book file or -] [transposition cache MB]
+    // Games of the API jar instead of the seeded simulator: -Dgames=api
+    // Other boards: -Dboard=20 -Dfleet=2,3,3,4,5,6, shot trace: -Dtrace=file
+    // Lookahead over the 8 densest cells, at most 20 us per shot: -Dlookahead=8 -Dlookahead.budget=20000
+    // Sinking by clusters of hits: -Dsink=cluster
+    // Placement weights learned across runs: -Dprior=file, applied without learning: -Dprior.learn=false
+    // Per-game results kept in a file, a stopped run carrying on where it was: -Dresults=file
+    public static void main(String[] args) throws IOException, JMException {
+        METRICS.register("battleship:type=BotMetrics");
+
+        int parallelism = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        ProbabilityMode probabilityMode = args.length > 1 ? ProbabilityMode.valueOf(args[1]) : ProbabilityMode.Bitboard;
+        OpeningBook openingBook = args.length > 2 && !args[2].equals("-") ? OpeningBook.load(Path.of(args[2])) : null;
+        TranspositionCache transpositionCache = args.length > 3
+                ? new TranspositionCache(probabilityMode, Long.parseLong(args[3]) << 20) : null;
+        startingSolution(parallelism, probabilityMode, openingBook, transpositionCache);
     }
 }
@@ -0,0 +1,260 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load generator for AdvisorServer: plays many games at once against in-process simulators, asking the server for
+ * every shot, and reports the request latency.
+ *
+ * The concurrent games are spread over a few connections. Each connection thread sends one round of requests for
+ * all of its games, pipelined in one write, then reads the responses in order; a game sends its report together with
+ * its next shot request. The latency of a request is the time from the write of its round to the read of its
+ * response, so it includes the time spent queued behind the other games of the connection, as it would for a
+ * client multiplexing that many games.
+ *
+ * Usage: java AdvisorClient [port or local] [concurrent games] [connections] [games] [master seed]
+ * "local" starts a server in this process on a free port.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class AdvisorClient {
+    // A connection reads no response while it writes a round, so all the responses of a round must fit in the
+    // server's output buffer: 2 responses of at most 13 bytes per game
+    private static final int MAX_GAMES_PER_CONNECTION = 2048;
+
+    private final InetSocketAddress address;
+    private final int connections;
+    private final int concurrentGames;
+    private final long games;
+    private final long masterSeed;
+
+    // Next game to start, shared by the connection threads
+    private final AtomicLong nextGame = new AtomicLong();
+
+    private final AtomicLong totalShots = new AtomicLong();
+    private final AtomicLong finishedGames = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    // Latency of every response, and of the shot responses only
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram shotLatency = new LatencyHistogram();
+
+    /**
+     * Constructor
+     *
+     * @param address         address of the server
+     * @param concurrentGames games in progress at once
+     * @param connections     connections to spread them over
+     * @param games           games to play in total
+     * @param masterSeed      seed of the simulators, see GameRunner.gameSeed
+     */
+    public AdvisorClient(InetSocketAddress address, int concurrentGames, int connections, long games, long masterSeed) {
+        if (connections < 1 || concurrentGames < connections)
+            throw new IllegalArgumentException("Need at least one game per connection");
+        if ((concurrentGames + connections - 1) / connections > MAX_GAMES_PER_CONNECTION)
+            throw new IllegalArgumentException("At most " + MAX_GAMES_PER_CONNECTION + " games per connection");
+
+        this.address = address;
+        this.connections = connections;
+        this.concurrentGames = concurrentGames;
+        this.games = games;
+        this.masterSeed = masterSeed;
+    }
+
+    /**
+     * Play all the games
+     *
+     * @return the elapsed time in nanoseconds
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public long run() throws IOException, InterruptedException {
+        Thread[] threads = new Thread[connections];
+        IOException[] failures = new IOException[connections];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < connections; ++i) {
+            int index = i;
+            int slots = concurrentGames / connections + (i < concurrentGames % connections ? 1 : 0);
+            threads[i] = new Thread(() -> {
+                try {
+                    playConnection(slots);
+                } catch (IOException e) {
+                    failures[index] = e;
+                }
+            }, "advisor-client-" + i);
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) thread.join();
+        for (IOException failure : failures)
+            if (failure != null) throw failure;
+
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * One game slot of a connection
+     */
+    private static final class Slot {
+        FastBattleShip game;
+
+        // Outcome of the last shot, still to be reported, -1 for none
+        byte outcome = -1;
+
+        // Responses expected in the current round
+        int expected;
+
+        // The server answered a request of the game with an error; the game is ended in the next round
+        boolean failed;
+    }
+
+    private void playConnection(int slotCount) throws IOException {
+        Slot[] slots = new Slot[slotCount];
+        for (int i = 0; i < slotCount; ++i) slots[i] = new Slot();
+
+        ByteBuffer out = ByteBuffer.allocate(slotCount * 2 * AdvisorProtocol.MAX_FRAME_BYTES);
+        ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+        int[] shipSizes = new FastBattleShip().shipSizes();
+
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            channel.socket().setTcpNoDelay(true);
+
+            while (true) {
+                out.clear();
+                int requests = 0;
+                for (int id = 0; id < slotCount; ++id) {
+                    Slot slot = slots[id];
+                    slot.expected = 0;
+
+                    if (slot.failed) {
+                        // Ends whatever the server still holds of the game before the slot takes a new one
+                        AdvisorProtocol.putHeader(out, AdvisorProtocol.END_GAME, id, 0);
+                        slot.game = null;
+                        slot.outcome = -1;
+                        slot.failed = false;
+                        slot.expected = 1;
+                        ++requests;
+                        continue;
+                    } else if (slot.game == null) {
+                        long game = nextGame.getAndIncrement();
+                        if (game >= games) continue;
+
+                        slot.game = new FastBattleShip(GameRunner.gameSeed(masterSeed, game));
+                        AdvisorProtocol.putNewGame(out, id, slot.game.boardSize(), shipSizes);
+                        AdvisorProtocol.putHeader(out, AdvisorProtocol.NEXT_SHOT, id, 0);
+                    } else if (slot.outcome >= 0) {
+                        AdvisorProtocol.putHeader(out, AdvisorProtocol.REPORT, id, 1);
+                        out.put(slot.outcome);
+                        slot.outcome = -1;
+
+                        if (slot.game.allSunk()) {
+                            AdvisorProtocol.putHeader(out, AdvisorProtocol.END_GAME, id, 0);
+                            totalShots.addAndGet(slot.game.totalShotsTaken());
+                            finishedGames.incrementAndGet();
+                            slot.game = null;
+                        } else {
+                            AdvisorProtocol.putHeader(out, AdvisorProtocol.NEXT_SHOT, id, 0);
+                        }
+                    } else {
+                        continue;
+                    }
+
+                    slot.expected = 2;
+                    requests += 2;
+                }
+
+                if (requests == 0) return;
+
+                out.flip();
+                while (out.hasRemaining()) channel.write(out);
+                long sent = System.nanoTime();
+
+                for (int id = 0; id < slotCount; ++id)
+                    for (int r = 0; r < slots[id].expected; ++r) readResponse(channel, in, slots, sent);
+            }
+        }
+    }
+
+    private void readResponse(SocketChannel channel, ByteBuffer in, Slot[] slots, long sent) throws IOException {
+        while (in.position() < 4 || in.position() < 4 + in.getInt(0)) {
+            if (channel.read(in) < 0) throw new EOFException("Server closed the connection");
+        }
+        long elapsed = System.nanoTime() - sent;
+        latency.record(elapsed);
+
+        in.flip();
+        int length = in.getInt();
+        int end = in.position() + length;
+        byte type = in.get();
+        Slot slot = slots[in.getInt()];
+
+        if (type == AdvisorProtocol.SHOT && !slot.failed) {
+            shotLatency.record(elapsed);
+            int cell = in.getInt();
+            int boardSize = slot.game.boardSize();
+            ShotResult result = slot.game.fire(cell / boardSize, cell % boardSize);
+            slot.outcome = result == ShotResult.Sunk ? AdvisorProtocol.SUNK
+                    : result == ShotResult.Hit ? AdvisorProtocol.HIT : AdvisorProtocol.MISS;
+        } else if (type == AdvisorProtocol.ERROR) {
+            byte code = in.get();
+
+            // Ending a failed game that the server never started or already dropped is expected to fail
+            if (slot.game != null || code != AdvisorProtocol.UNKNOWN_GAME) {
+                errors.incrementAndGet();
+                System.err.println("Server error: " + AdvisorProtocol.errorName(code));
+            }
+            if (slot.game != null) {
+                slot.failed = true;
+                slot.outcome = -1;
+            }
+        }
+
+        in.position(end);
+        in.compact();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        boolean local = args.length == 0 || args[0].equals("local");
+        int concurrentGames = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        long games = args.length > 3 ? Long.parseLong(args[3]) : 2L * concurrentGames;
+        long masterSeed = args.length > 4 ? Long.parseLong(args[4]) : A6.MASTERSEED;
+
+        AdvisorServer server = null;
+        int port;
+        if (local) {
+            server = new AdvisorServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                    Runtime.getRuntime().availableProcessors(), ProbabilityMode.Bitboard, concurrentGames, 60_000);
+            server.start();
+            port = server.getPort();
+        } else {
+            port = Integer.parseInt(args[0]);
+        }
+
+        AdvisorClient client = new AdvisorClient(new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                concurrentGames, connections, games, masterSeed);
+        try {
+            double seconds = client.run() / 1e9;
+
+            long finished = client.finishedGames.get();
+            long requests = client.latency.getCount();
+            System.out.printf("%d games (%d at once over %d connections), %.2f shots per game, %d errors\n", finished,
+                    concurrentGames, connections, finished == 0 ? 0 : (double) client.totalShots.get() / finished,
+                    client.errors.get());
+            System.out.printf("%d requests in %.2f s - %.0f requests/sec, %.0f games/sec\n", requests, seconds,
+                    requests / seconds, finished / seconds);
+            System.out.printf("All requests  p50 %d us, p99 %d us, max %d us\n", client.latency.getValueAtPercentile(50) / 1000,
+                    client.latency.getValueAtPercentile(99) / 1000, client.latency.getMax() / 1000);
+            System.out.printf("Shot requests p50 %d us, p99 %d us, max %d us\n", client.shotLatency.getValueAtPercentile(50) / 1000,
+                    client.shotLatency.getValueAtPercentile(99) / 1000, client.shotLatency.getMax() / 1000);
+        } finally {
+            if (server != null) server.close();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Binary protocol between AdvisorServer and its clients.
+ *
+ * Every message is a frame: an int length counting the bytes that follow it, a byte type, the int id of the game
+ * chosen by the client, then the payload of the type. Ints are big-endian. A connection can play many games at once
+ * and send requests without waiting for the responses; the server answers each request with exactly one response,
+ * in order.
+ *
+ * Requests:
+ * NEW_GAME  byte board size, byte number of ships, one byte per ship length   -> OK
+ * NEXT_SHOT                                                                   -> SHOT int cell (x * board size + y)
+ * REPORT    byte MISS, HIT or SUNK, the outcome of the last shot              -> OK
+ * END_GAME                                                                    -> OK
+ * Any request can be answered with ERROR byte code instead.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class AdvisorProtocol {
+    // Request types
+    public static final byte NEW_GAME = 1;
+    public static final byte NEXT_SHOT = 2;
+    public static final byte REPORT = 3;
+    public static final byte END_GAME = 4;
+
+    // Response types
+    public static final byte OK = 0x40;
+    public static final byte SHOT = 0x41;
+    public static final byte ERROR = 0x7F;
+
+    // Outcomes of a shot
+    public static final byte MISS = 0;
+    public static final byte HIT = 1;
+    public static final byte SUNK = 2;
+
+    // Error codes
+    public static final byte UNKNOWN_GAME = 1;
+    public static final byte BAD_REQUEST = 2;
+    public static final byte BUSY = 3;
+    public static final byte GAME_OVER = 4;
+    public static final byte DUPLICATE_GAME = 5;
+    public static final byte OUT_OF_ORDER = 6;
+    public static final byte INTERNAL_ERROR = 7;
+
+    // Bytes of the frame header: length, type and game id
+    public static final int HEADER_BYTES = 9;
+
+    // Largest frame, a new game with 255 ships
+    public static final int MAX_FRAME_BYTES = HEADER_BYTES + 2 + 255;
+
+    // Largest response
+    public static final int MAX_RESPONSE_BYTES = HEADER_BYTES + 4;
+
+    private AdvisorProtocol() {
+    }
+
+    /**
+     * Write the header of a frame
+     *
+     * @param buffer
+     * @param type
+     * @param game
+     * @param payloadBytes bytes of the payload that follows
+     */
+    public static void putHeader(ByteBuffer buffer, byte type, int game, int payloadBytes) {
+        buffer.putInt(HEADER_BYTES - 4 + payloadBytes);
+        buffer.put(type);
+        buffer.putInt(game);
+    }
+
+    /**
+     * Write a new game request
+     *
+     * @param buffer
+     * @param game
+     * @param boardSize
+     * @param shipSizes
+     */
+    public static void putNewGame(ByteBuffer buffer, int game, int boardSize, int[] shipSizes) {
+        putHeader(buffer, NEW_GAME, game, 2 + shipSizes.length);
+        buffer.put((byte) boardSize);
+        buffer.put((byte) shipSizes.length);
+        for (int size : shipSizes) buffer.put((byte) size);
+    }
+
+    /**
+     * Returns the name of an error code
+     *
+     * @param code
+     * @return
+     */
+    public static String errorName(byte code) {
+        return switch (code) {
+            case UNKNOWN_GAME -> "unknown game";
+            case BAD_REQUEST -> "bad request";
+            case BUSY -> "too many games";
+            case GAME_OVER -> "game over";
+            case DUPLICATE_GAME -> "game already exists";
+            case OUT_OF_ORDER -> "out of order";
+            case INTERNAL_ERROR -> "internal error";
+            default -> "error " + code;
+        };
+    }
+}
@@ -0,0 +1,537 @@
+import javax.management.JMException;
+import java.awt.Point;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shot advisor: plays the bot's side of games whose shots are taken by a client, over AdvisorProtocol on a local
+ * socket.
+ *
+ * Each game is a session owning a DrInvisible_Bot and its VirtualField. A session costs no thread: a few worker
+ * threads each run a selector over their share of the connections, and a request is served in a couple of
+ * microseconds on the worker that read it, so thousands of games can be in progress at once.
+ *
+ * Backpressure: a worker stops reading from a connection whose responses do not fit in its output buffer until the
+ * client has read them, and new games are refused with BUSY beyond maxSessions. Input and output buffers come from a
+ * shared pool and go back to it when a connection closes. Games idle for longer than the idle timeout are evicted,
+ * and so are connections without games.
+ *
+ * Usage: java AdvisorServer [port] [threads] [probability mode] [max games] [idle timeout seconds]
+ * Per-shot metrics, also switched on over JMX as battleship:type=AdvisorMetrics: -Dmetrics=true
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class AdvisorServer implements Closeable {
+    public static final int DEFAULT_PORT = 10205;
+
+    // Size of the input and output buffers of a connection
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final ProbabilityMode probabilityMode;
+    private final int maxSessions;
+    private final long idleTimeoutNanos;
+
+    private final ServerSocketChannel serverChannel;
+    private final Worker[] workers;
+    private int nextWorker;
+
+    // Buffers of closed connections, ready for new ones
+    private final ConcurrentLinkedQueue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+
+    // Instrumentation shared by every bot, null for none
+    private BotMetrics metrics;
+
+    private volatile boolean closed;
+
+    private final AtomicInteger sessions = new AtomicInteger();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder evictedSessions = new LongAdder();
+
+    /**
+     * Constructor, binding the port right away. Call start to serve
+     *
+     * @param address           local address to listen on, port 0 for any free port
+     * @param threads           number of worker threads
+     * @param probabilityMode   probability mode of every bot
+     * @param maxSessions       games in progress at once
+     * @param idleTimeoutMillis games and connections idle for longer are dropped
+     * @throws IOException
+     */
+    public AdvisorServer(InetSocketAddress address, int threads, ProbabilityMode probabilityMode, int maxSessions,
+                         long idleTimeoutMillis) throws IOException {
+        if (threads < 1) throw new IllegalArgumentException("Invalid number of threads: " + threads);
+        if (maxSessions < 1) throw new IllegalArgumentException("Invalid number of games: " + maxSessions);
+        if (idleTimeoutMillis < 1) throw new IllegalArgumentException("Invalid idle timeout: " + idleTimeoutMillis);
+
+        this.probabilityMode = probabilityMode;
+        this.maxSessions = maxSessions;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+
+        this.workers = new Worker[threads];
+        try {
+            for (int i = 0; i < threads; ++i) workers[i] = new Worker(i);
+
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(address, 1024);
+            serverChannel.configureBlocking(false);
+        } catch (IOException e) {
+            for (Worker worker : workers)
+                if (worker != null) worker.selector.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Start the worker threads
+     */
+    public void start() {
+        workers[0].pending.add(serverChannel);
+        for (Worker worker : workers) worker.thread.start();
+    }
+
+    /**
+     * Record the phases and shots of every game into shared metrics while they are enabled. Call before start
+     *
+     * @param metrics
+     */
+    public void setMetrics(BotMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public int getActiveSessions() {
+        return sessions.get();
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getEvictedSessions() {
+        return evictedSessions.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        for (Worker worker : workers) {
+            worker.selector.wakeup();
+            try {
+                if (worker.thread.isAlive()) worker.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        serverChannel.close();
+    }
+
+    private ByteBuffer takeBuffer() {
+        ByteBuffer buffer = bufferPool.poll();
+        return buffer != null ? buffer.clear() : ByteBuffer.allocateDirect(BUFFER_BYTES);
+    }
+
+    /**
+     * One game in progress
+     */
+    private static final class Session {
+        final int boardSize;
+        final int shipCount;
+        final DrInvisible_Bot bot;
+
+        // A shot was returned and its outcome not reported yet
+        boolean shotPending;
+
+        long lastActive;
+
+        Session(int boardSize, int shipCount, DrInvisible_Bot bot) {
+            this.boardSize = boardSize;
+            this.shipCount = shipCount;
+            this.bot = bot;
+        }
+    }
+
+    /**
+     * A client connection and the games it plays
+     */
+    private static final class Connection {
+        final SocketChannel channel;
+        final ByteBuffer in;
+        final ByteBuffer out;
+        final Map<Integer, Session> sessions = new HashMap<>();
+        long lastActive;
+
+        Connection(SocketChannel channel, ByteBuffer in, ByteBuffer out) {
+            this.channel = channel;
+            this.in = in;
+            this.out = out;
+        }
+    }
+
+    private final class Worker implements Runnable {
+        final Selector selector;
+        final Thread thread;
+
+        // Channels handed over by the acceptor, registered by this worker's thread
+        final ConcurrentLinkedQueue<Object> pending = new ConcurrentLinkedQueue<>();
+
+        long nextSweep;
+
+        Worker(int index) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, "advisor-worker-" + index);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long sweepInterval = Math.max(TimeUnit.MILLISECONDS.toNanos(100), idleTimeoutNanos / 4);
+
+            try {
+                while (!closed) {
+                    // Only a broken selector stops the worker; a failure on one channel closes that channel alone
+                    if (pending.isEmpty()) selector.select(TimeUnit.NANOSECONDS.toMillis(sweepInterval));
+                    else selector.selectNow();
+                    long now = System.nanoTime();
+
+                    registerPending(now);
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) continue;
+
+                        if (key.isAcceptable()) accept();
+                        else serve(key, now);
+                    }
+
+                    if (now - nextSweep >= 0) {
+                        evictIdle(now);
+                        nextSweep = now + sweepInterval;
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                closeAll();
+            }
+        }
+
+        private void registerPending(long now) {
+            for (Object channel; (channel = pending.poll()) != null; ) {
+                try {
+                    if (channel instanceof ServerSocketChannel) {
+                        ((ServerSocketChannel) channel).register(selector, SelectionKey.OP_ACCEPT);
+                        continue;
+                    }
+
+                    SocketChannel socket = (SocketChannel) channel;
+                    SelectionKey key = socket.register(selector, SelectionKey.OP_READ);
+                    Connection connection = new Connection(socket, takeBuffer(), takeBuffer());
+                    connection.lastActive = now;
+                    key.attach(connection);
+                } catch (IOException e) {
+                    // The channel was closed before it could be registered
+                    closeChannel((Channel) channel);
+                }
+            }
+        }
+
+        private void accept() {
+            while (true) {
+                SocketChannel channel;
+                try {
+                    channel = serverChannel.accept();
+                } catch (IOException e) {
+                    // Such as running out of file descriptors; the next select tries again
+                    break;
+                }
+                if (channel == null) break;
+
+                try {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                } catch (IOException e) {
+                    closeChannel(channel);
+                    continue;
+                }
+
+                Worker worker = workers[nextWorker];
+                nextWorker = (nextWorker + 1) % workers.length;
+                worker.pending.add(channel);
+                if (worker != this) worker.selector.wakeup();
+            }
+
+            registerPending(System.nanoTime());
+        }
+
+        private void serve(SelectionKey key, long now) {
+            Connection connection = (Connection) key.attachment();
+
+            try {
+                if (key.isReadable() && connection.channel.read(connection.in) < 0) {
+                    close(key);
+                    return;
+                }
+
+                connection.lastActive = now;
+
+                // Serve the requests received, flush, and serve again the ones held back while the output was full
+                boolean stalled;
+                do {
+                    stalled = handleRequests(connection, now);
+                    flush(connection);
+                } while (stalled && connection.out.position() == 0);
+
+                int interest = connection.out.position() > 0 ? SelectionKey.OP_WRITE : 0;
+                if (!stalled) interest |= SelectionKey.OP_READ;
+                key.interestOps(interest);
+            } catch (IOException | RuntimeException e) {
+                // A broken client or a bug serving it closes its connection, not the worker
+                close(key);
+            }
+        }
+
+        /**
+         * Serve the complete requests of the input buffer
+         *
+         * @return true if requests are left because their responses would not fit in the output buffer
+         * @throws IllegalStateException if the client breaks the framing
+         */
+        private boolean handleRequests(Connection connection, long now) {
+            ByteBuffer in = connection.in;
+            ByteBuffer out = connection.out;
+            boolean stalled = false;
+
+            in.flip();
+            while (in.remaining() >= 4) {
+                int length = in.getInt(in.position());
+                if (length < AdvisorProtocol.HEADER_BYTES - 4 || length > AdvisorProtocol.MAX_FRAME_BYTES - 4)
+                    throw new IllegalStateException("Invalid frame length " + length);
+                if (in.remaining() < 4 + length) break;
+
+                if (out.remaining() < AdvisorProtocol.MAX_RESPONSE_BYTES) {
+                    stalled = true;
+                    break;
+                }
+
+                int end = in.position() + 4 + length;
+                in.position(in.position() + 4);
+                handleRequest(connection, in, end, now);
+                in.position(end);
+                requests.increment();
+            }
+            in.compact();
+
+            return stalled;
+        }
+
+        private void handleRequest(Connection connection, ByteBuffer in, int end, long now) {
+            ByteBuffer out = connection.out;
+            byte type = in.get();
+            int game = in.getInt();
+
+            if (type == AdvisorProtocol.NEW_GAME) {
+                newGame(connection, in, end, game, now);
+                return;
+            }
+
+            Session session = connection.sessions.get(game);
+            if (session == null) {
+                putError(out, game, AdvisorProtocol.UNKNOWN_GAME);
+                return;
+            }
+            session.lastActive = now;
+
+            try {
+                switch (type) {
+                    case AdvisorProtocol.NEXT_SHOT -> {
+                        if (session.shotPending) {
+                            putError(out, game, AdvisorProtocol.OUT_OF_ORDER);
+                        } else if (session.bot.getShipsSunk() == session.shipCount) {
+                            putError(out, game, AdvisorProtocol.GAME_OVER);
+                        } else {
+                            Point shot = session.bot.nextShot();
+                            session.shotPending = true;
+                            AdvisorProtocol.putHeader(out, AdvisorProtocol.SHOT, game, 4);
+                            out.putInt(shot.x * session.boardSize + shot.y);
+                        }
+                    }
+                    case AdvisorProtocol.REPORT -> {
+                        byte outcome = end - in.position() == 1 ? in.get() : -1;
+                        if (outcome < AdvisorProtocol.MISS || outcome > AdvisorProtocol.SUNK) {
+                            putError(out, game, AdvisorProtocol.BAD_REQUEST);
+                        } else if (!session.shotPending) {
+                            putError(out, game, AdvisorProtocol.OUT_OF_ORDER);
+                        } else {
+                            session.shotPending = false;
+                            session.bot.reportShot(outcome == AdvisorProtocol.SUNK ? ShotResult.Sunk
+                                    : outcome == AdvisorProtocol.HIT ? ShotResult.Hit : ShotResult.Miss);
+                            AdvisorProtocol.putHeader(out, AdvisorProtocol.OK, game, 0);
+                        }
+                    }
+                    case AdvisorProtocol.END_GAME -> {
+                        endSession(connection, game);
+                        AdvisorProtocol.putHeader(out, AdvisorProtocol.OK, game, 0);
+                    }
+                    default -> putError(out, game, AdvisorProtocol.BAD_REQUEST);
+                }
+            } catch (RuntimeException e) {
+                // Outcomes that contradict each other can leave the bot with no shot to take
+                endSession(connection, game);
+                putError(out, game, AdvisorProtocol.INTERNAL_ERROR);
+            }
+        }
+
+        private void newGame(Connection connection, ByteBuffer in, int end, int game, long now) {
+            ByteBuffer out = connection.out;
+
+            if (end - in.position() < 2 || end - in.position() != 2 + (in.get(in.position() + 1) & 0xFF)) {
+                putError(out, game, AdvisorProtocol.BAD_REQUEST);
+                return;
+            }
+
+            int boardSize = in.get() & 0xFF;
+            int[] shipSizes = new int[in.get() & 0xFF];
+            for (int i = 0; i < shipSizes.length; ++i) shipSizes[i] = in.get() & 0xFF;
+
+            if (connection.sessions.containsKey(game)) {
+                putError(out, game, AdvisorProtocol.DUPLICATE_GAME);
+                return;
+            }
+
+            if (sessions.incrementAndGet() > maxSessions) {
+                sessions.decrementAndGet();
+                putError(out, game, AdvisorProtocol.BUSY);
+                return;
+            }
+
+            try {
+                DrInvisible_Bot bot = new DrInvisible_Bot(boardSize, shipSizes, probabilityMode);
+                bot.setMetrics(metrics);
+                Session session = new Session(boardSize, shipSizes.length, bot);
+                session.lastActive = now;
+                connection.sessions.put(game, session);
+                AdvisorProtocol.putHeader(out, AdvisorProtocol.OK, game, 0);
+            } catch (IllegalArgumentException e) {
+                sessions.decrementAndGet();
+                putError(out, game, AdvisorProtocol.BAD_REQUEST);
+            }
+        }
+
+        private void endSession(Connection connection, int game) {
+            if (connection.sessions.remove(game) != null) sessions.decrementAndGet();
+        }
+
+        private void putError(ByteBuffer out, int game, byte code) {
+            AdvisorProtocol.putHeader(out, AdvisorProtocol.ERROR, game, 1);
+            out.put(code);
+        }
+
+        private void flush(Connection connection) throws IOException {
+            ByteBuffer out = connection.out;
+            out.flip();
+            connection.channel.write(out);
+            out.compact();
+        }
+
+        private void evictIdle(long now) {
+            for (SelectionKey key : selector.keys()) {
+                if (!(key.attachment() instanceof Connection)) continue;
+
+                Connection connection = (Connection) key.attachment();
+                Iterator<Session> iterator = connection.sessions.values().iterator();
+                while (iterator.hasNext()) {
+                    if (now - iterator.next().lastActive > idleTimeoutNanos) {
+                        iterator.remove();
+                        sessions.decrementAndGet();
+                        evictedSessions.increment();
+                    }
+                }
+
+                if (connection.sessions.isEmpty() && now - connection.lastActive > idleTimeoutNanos) close(key);
+            }
+        }
+
+        private void close(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            key.cancel();
+            try {
+                connection.channel.close();
+            } catch (IOException e) {
+                // Nothing left to do with this connection
+            }
+
+            sessions.addAndGet(-connection.sessions.size());
+            connection.sessions.clear();
+            bufferPool.add(connection.in);
+            bufferPool.add(connection.out);
+        }
+
+        private void closeChannel(Channel channel) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing left to do with this channel
+            }
+        }
+
+        private void closeAll() {
+            for (SelectionKey key : selector.keys())
+                if (key.attachment() instanceof Connection) close(key);
+
+            try {
+                for (Object channel; (channel = pending.poll()) != null; )
+                    if (channel instanceof SocketChannel) ((SocketChannel) channel).close();
+                selector.close();
+            } catch (IOException e) {
+                // Nothing left to serve
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, JMException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        ProbabilityMode probabilityMode = args.length > 2 ? ProbabilityMode.valueOf(args[2]) : ProbabilityMode.Bitboard;
+        int maxSessions = args.length > 3 ? Integer.parseInt(args[3]) : 100_000;
+        long idleTimeoutMillis = (args.length > 4 ? Long.parseLong(args[4]) : 60) * 1000;
+
+        AdvisorServer server = new AdvisorServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), threads,
+                probabilityMode, maxSessions, idleTimeoutMillis);
+        BotMetrics metrics = new BotMetrics(Boolean.getBoolean("metrics"));
+        metrics.register("battleship:type=AdvisorMetrics");
+        server.setMetrics(metrics);
+        server.start();
+        System.out.printf("Shot advisor on port %d - %d threads, %s, at most %d games\n", server.getPort(), threads,
+                probabilityMode, maxSessions);
+
+        while (true) {
+            Thread.sleep(10_000);
+            System.out.printf("%d games in progress, %d requests, %d games evicted\n", server.getActiveSessions(),
+                    server.getRequests(), server.getEvictedSessions());
+            if (metrics.isEnabled()) System.out.print(metrics.snapshot());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * A battleship game that can be played to the end: the GameOracle the bot shoots at, plus the state the runners read
+ * to know when a game is over and how many shots it took.
+ *
+ * Implemented by JarBattleShip, which wraps the BattleShip class of the API, and by FastBattleShip, the in-process
+ * simulator used for large runs.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public interface BattleshipGame extends GameOracle {
+    /**
+     * Shoot at a cell
+     *
+     * @param x
+     * @param y
+     * @return true if a ship is at the cell
+     */
+    boolean shoot(int x, int y);
+
+    /**
+     * Shoot at a cell, telling whether the shot sank a ship by comparing the ships sunk before and after it
+     *
+     * @param x
+     * @param y
+     * @return the outcome of the shot
+     */
+    @Override
+    default ShotResult fire(int x, int y) {
+        int shipsSunk = numberOfShipsSunk();
+        if (!shoot(x, y)) return ShotResult.Miss;
+        return numberOfShipsSunk() > shipsSunk ? ShotResult.Sunk : ShotResult.Hit;
+    }
+
+    /**
+     * Returns the total number of ships sunk so far
+     *
+     * @return
+     */
+    int numberOfShipsSunk();
+
+    /**
+     * Returns whether all the ships have been sunk
+     *
+     * @return
+     */
+    boolean allSunk();
+
+    /**
+     * Returns the total number of shots taken
+     *
+     * @return
+     */
+    int totalShotsTaken();
+
+    /**
+     * Returns where a ship was placed, so that a runner can teach a PlacementPrior the real fleet of the game
+     *
+     * @param ship index in shipSizes
+     * @return the number of the placement among those of the ship's length, as in PlacementIndex, or -1 if the game
+     * does not tell
+     */
+    default int getPlacement(int ship) {
+        return -1;
+    }
+}
@@ -0,0 +1,103 @@
+import battleship.BattleShip;
+
+import java.awt.Point;
+
+/**
+ * Fixed mid-game board states used by BotBenchmark, so that results can be compared between commits.
+ *
+ * Each state was recorded from a game on FastBattleShip and is stored as "seed;board;aliveShips;hitPoints", where
+ * board holds the 100 CellState letters in x-major order (index x * 10 + y) and hitPoints are cell indexes in the
+ * order they were hit.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class BenchmarkStates {
+    private static final String[] STATES = {
+            "11;EEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEMEEEEEEEEEEMEEEEEEEEEEHMEEEEEEEEHEEEEEEEEEMEEEEEEEEEEEEE;2,3,3,4,5;66,76",
+            "12;EEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEMEEEEEEEEMSSSSSEEEMEEMEEEESSSEEEEEEEEEMEEEMEEEEEEEEEEEEEEEEEEEEEEE;2,3,4;",
+            "13;EEEEEEEEEEEEEEEMEEEEEEEMEEMESEEEEEMEEMSEEEEEEEEESMEMSSSSSEMEEEEEEEEMEEEEESSSEEEEEEMEEEMEEEEEEEEEEEEE;2,4;",
+            "14;EEEEMEEEEEEEEMSSSSSEEEMEEMEEEEEEEEMEEMEEEMEEEEMEEEEESSSSEEMMEEEEEEEMEHEMEMEEMEEHEEMEEMEEMEEEEEMEEMEE;2,3,3;79,69",
+            "15;EEEEEEEEEEEEEEEEEEEEEEEEEEMEEEEEEMEEEMEEEMMMMEEEEEMHHHSMEEEEMSSSSSMEEEEEMMEEEHMEEEEEEEEHEEEEEEEEEEEE;2,3,3,4;77,87",
+            "16;EEEEEEEEEEEEEEMEEEEEEEEESEEEEEEEEESEEEHEEEEMSEEMEEEEMESMSEEEEMEESESEEEEEEMEESMEEEEMEEESEEEEEEEEEMEEE;2,3,3;38",
+            "17;EEEEEESEEEEEEEEESEEEEEEEEMSEEEEEEMEEEMEEEEEEMEHHHHEMEEEMEEMEEEMEEEMEEEEEEMEEEEEEEEEEMEEEEEEEEEEEEEEE;2,3,4,5;48,49,47,46",
+            "18;EEEEMEEEEEEEEMEEMEEEEEMEEMEMEEEEEEMEEEMEEMEEEEEMEEEEMSSSSEEMMEEEEEEEMEEEEEMEEMEESSSSSMEEEEEEEEEEMEEE;2,3,3;",
+            "19;EEEEEEEHEEEEEMEEEEMEEEMEMEMEEMEMEEEMEMEEEEMMESEEMEEEESMSEEEEEMESESEEEEMSESESSSSMESMSMEEEEEEEESEEEEEE;3;7",
+            "20;EEEEEEEEEEEMEEMEMEMEEEMEEEEMEEESEMESSSEEESEEMEEMMEESEMEMEMEMSEMEMEMEMESMEMEMEEMESEMEMEEMEESEEEMSSSSS;2;",
+            "21;EEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEMEEEEEEEEMSSSSEEEEEEEMEEMEEEMEEEEEHEEEEEMEEEEEEEEEEEEEEEEEEEEEEEEE;2,3,3,5;68",
+            "22;EEEMEEEEEEESEEMEMEEEESMEEMSSSEESEMEEEMEEESEEMEMEMEESEMEMESEEEEMEMEMSEMMEEMEMESMEEMEEMEESEEEEMEEEEMEE;2,3;",
+    };
+
+    private BenchmarkStates() {
+    }
+
+    /**
+     * Returns the number of recorded states
+     *
+     * @return
+     */
+    public static int size() {
+        return STATES.length;
+    }
+
+    /**
+     * Returns the seed of the game a state was recorded from
+     *
+     * @param index
+     * @return
+     */
+    public static long seed(int index) {
+        return Long.parseLong(STATES[index].split(";", -1)[0]);
+    }
+
+    /**
+     * Rebuild the VirtualField of a state on a packed board, as the bot uses, with the heat map already computed
+     *
+     * @param index
+     * @param probabilityMode
+     * @return
+     */
+    public static VirtualField field(int index, ProbabilityMode probabilityMode) {
+        String[] parts = STATES[index].split(";", -1);
+        VirtualField field = new VirtualField(BattleShip.DEFAULTSHIPSIZES, probabilityMode, BoardLayout.Packed);
+
+        String board = parts[1];
+        for (int cell = 0; cell < board.length(); ++cell) {
+            CellState state = switch (board.charAt(cell)) {
+                case 'H' -> CellState.Hit;
+                case 'M' -> CellState.Miss;
+                case 'S' -> CellState.Sunk;
+                default -> CellState.Empty;
+            };
+            if (state != CellState.Empty) field.setCellState(cell / 10, cell % 10, state);
+        }
+
+        field.aliveShips.clear();
+        for (String size : parts[2].split(",")) if (!size.isEmpty()) field.aliveShips.add(Integer.parseInt(size));
+
+        // Hits are replayed in order so the sink stack and direction are rebuilt the way the game built them
+        for (String hit : parts[3].split(",")) {
+            if (hit.isEmpty()) continue;
+            int cell = Integer.parseInt(hit);
+            field.handleShotHit(new Point(cell / 10, cell % 10));
+        }
+
+        field.updateProbability();
+        return field;
+    }
+
+    /**
+     * Rebuild the game of a state: the seeded layout with every non Empty cell of the state already shot
+     *
+     * @param index
+     * @param game  simulator to reset
+     */
+    public static void game(int index, FastBattleShip game) {
+        String[] parts = STATES[index].split(";", -1);
+        game.reset(Long.parseLong(parts[0]));
+
+        String board = parts[1];
+        for (int cell = 0; cell < board.length(); ++cell)
+            if (board.charAt(cell) != 'E') game.shoot(cell / 10, cell % 10);
+    }
+}
@@ -0,0 +1,4 @@
+public enum BoardLayout {
+    Cells,
+    Packed
+}
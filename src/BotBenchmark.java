@@ -0,0 +1,251 @@
+import java.awt.Point;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Micro benchmarks for the hot paths of the bot, run over the fixed board states of BenchmarkStates.
+ *
+ * Every benchmark is warmed up and then measured over several timed iterations. An iteration is made of passes: the
+ * state the operation needs is rebuilt for every recorded state outside of the timed region, then the operation runs
+ * on all of them between two reads of the clock, so that the cost of reading the clock does not swamp the operations
+ * that take less than a microsecond. Alongside ns/op, the bytes allocated per operation are read from the thread
+ * allocation counter, the same number JMH reports as gc.alloc.rate.norm with -prof gc.
+ *
+ * Usage: java BotBenchmark [name filter]
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class BotBenchmark {
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASUREMENT_ITERATIONS = 5;
+    private static final long ITERATION_NANOS = 500_000_000L;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Keeps results alive so the JIT cannot drop the measured work
+    private static volatile long sink;
+
+    /**
+     * A benchmarked operation on one of the recorded states
+     */
+    private interface Operation {
+        /**
+         * Rebuild what the operation needs for a state, not timed
+         *
+         * @param state
+         */
+        default void prepare(int state) {
+        }
+
+        /**
+         * The measured operation
+         *
+         * @param state
+         * @return any value derived from the result
+         */
+        long run(int state);
+    }
+
+    public static void main(String[] args) {
+        String filter = args.length > 0 ? args[0] : "";
+        System.out.printf("%-34s %12s %10s %12s\n", "Benchmark", "ns/op", "error", "B/op");
+
+        for (ProbabilityMode mode : ProbabilityMode.values()) {
+            VirtualField[] fields = new VirtualField[BenchmarkStates.size()];
+            FieldSnapshot[] snapshots = new FieldSnapshot[BenchmarkStates.size()];
+            Point[] targets = new Point[BenchmarkStates.size()];
+            FastBattleShip[] games = new FastBattleShip[BenchmarkStates.size()];
+            DrInvisible_Bot[] bots = new DrInvisible_Bot[BenchmarkStates.size()];
+            for (int state = 0; state < games.length; ++state) games[state] = new FastBattleShip();
+
+            // A miss on the densest cell of water and the update that follows it, from the recorded state every time
+            run(filter, "updateProbability", mode, new Operation() {
+                public void prepare(int state) {
+                    if (fields[state] == null) {
+                        fields[state] = BenchmarkStates.field(state, mode);
+                        snapshots[state] = fields[state].snapshot();
+                        BenchmarkStates.game(state, games[state]);
+                        targets[state] = densestWater(fields[state], games[state]);
+                    } else {
+                        fields[state].restore(snapshots[state]);
+                        fields[state].updateProbability();
+                    }
+                }
+
+                public long run(int state) {
+                    fields[state].setCellState(targets[state].x, targets[state].y, CellState.Miss);
+                    fields[state].updateProbability();
+                    return fields[state].aliveShips.size();
+                }
+            });
+
+            run(filter, "getNextShot", mode, new Operation() {
+                public void prepare(int state) {
+                    fields[state] = BenchmarkStates.field(state, mode);
+                }
+
+                public long run(int state) {
+                    Point shot = fields[state].getNextShot();
+                    return shot == null ? 0 : shot.x * 10 + shot.y;
+                }
+            });
+
+            run(filter, "setupSinkStack+sinkMode", mode, new Operation() {
+                public void prepare(int state) {
+                    fields[state] = BenchmarkStates.field(state, mode);
+                    targets[state] = fields[state].hitPoints.isEmpty() ? fields[state].getNextShot()
+                            : fields[state].hitPoints.get(fields[state].hitPoints.size() - 1);
+                }
+
+                public long run(int state) {
+                    fields[state].setupSinkStack(targets[state]);
+                    Point shot = fields[state].sinkMode();
+                    return shot == null ? 0 : shot.x * 10 + shot.y;
+                }
+            });
+
+            run(filter, "handleShotHit", mode, new Operation() {
+                public void prepare(int state) {
+                    fields[state] = BenchmarkStates.field(state, mode);
+                    Point shot = fields[state].sinkMode();
+                    targets[state] = shot != null ? shot : fields[state].getNextShot();
+                }
+
+                public long run(int state) {
+                    fields[state].handleShotHit(targets[state]);
+                    return fields[state].sunkShips.size();
+                }
+            });
+
+            run(filter, "fireShot", mode, new Operation() {
+                public void prepare(int state) {
+                    BenchmarkStates.game(state, games[state]);
+                    bots[state] = new DrInvisible_Bot(games[state], BenchmarkStates.field(state, mode));
+                }
+
+                public long run(int state) {
+                    return bots[state].fireShot() ? 1 : 0;
+                }
+            });
+
+            run(filter, "fullGame", mode, new Operation() {
+                public long run(int state) {
+                    FastBattleShip game = games[state];
+                    game.reset(BenchmarkStates.seed(state));
+                    DrInvisible_Bot bot = new DrInvisible_Bot(game, mode);
+                    while (!game.allSunk()) bot.fireShot();
+                    return game.totalShotsTaken();
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the Empty cell of highest probability that holds no ship in the game of a state
+     *
+     * @param field
+     * @param game
+     * @return
+     */
+    private static Point densestWater(VirtualField field, FastBattleShip game) {
+        Point best = null;
+        double bestProbability = -1;
+        for (int x = 0; x < field.BOARD_SIZE; ++x)
+            for (int y = 0; y < field.BOARD_SIZE; ++y)
+                if (field.board[x][y].getCellState() == CellState.Empty && !isShip(game, x, y)
+                        && field.board[x][y].getProbability() > bestProbability) {
+                    best = new Point(x, y);
+                    bestProbability = field.board[x][y].getProbability();
+                }
+
+        return best;
+    }
+
+    /**
+     * Returns whether a ship of a game covers a cell, from the placements the game tells
+     *
+     * @param game
+     * @param x
+     * @param y
+     * @return
+     */
+    private static boolean isShip(FastBattleShip game, int x, int y) {
+        int boardSize = game.boardSize();
+        int[] shipSizes = game.shipSizes();
+
+        for (int ship = 0; ship < shipSizes.length; ++ship) {
+            int perLine = boardSize - shipSizes[ship] + 1;
+            int placement = game.getPlacement(ship);
+            if (placement < boardSize * perLine) {
+                int startY = placement % perLine;
+                if (placement / perLine == x && y >= startY && y < startY + shipSizes[ship]) return true;
+            } else {
+                int startX = (placement - boardSize * perLine) / boardSize;
+                if ((placement - boardSize * perLine) % boardSize == y && x >= startX && x < startX + shipSizes[ship]) return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Warm up and measure an operation over all the recorded states, then print ns/op and B/op
+     *
+     * @param filter    only benchmarks whose name contains the filter are run
+     * @param name
+     * @param mode
+     * @param operation
+     */
+    private static void run(String filter, String name, ProbabilityMode mode, Operation operation) {
+        String label = name + " [" + mode + "]";
+        if (!label.contains(filter)) return;
+
+        for (int i = 0; i < WARMUP_ITERATIONS; ++i) iteration(operation);
+
+        double[] nanosPerOp = new double[MEASUREMENT_ITERATIONS];
+        double bytesPerOp = 0;
+        for (int i = 0; i < MEASUREMENT_ITERATIONS; ++i) {
+            double[] result = iteration(operation);
+            nanosPerOp[i] = result[0];
+            bytesPerOp += result[1] / MEASUREMENT_ITERATIONS;
+        }
+
+        double mean = 0;
+        for (double value : nanosPerOp) mean += value / MEASUREMENT_ITERATIONS;
+        double variance = 0;
+        for (double value : nanosPerOp) variance += (value - mean) * (value - mean) / (MEASUREMENT_ITERATIONS - 1);
+
+        System.out.printf("%-34s %12.1f %10.1f %12.1f\n", label, mean, Math.sqrt(variance), bytesPerOp);
+    }
+
+    /**
+     * One timed iteration, made of passes over all the states until the iteration time is used up. Only the
+     * operations of a pass are timed, all together
+     *
+     * @param operation
+     * @return ns/op and B/op of the iteration
+     */
+    private static double[] iteration(Operation operation) {
+        int states = BenchmarkStates.size();
+        long operations = 0;
+        long nanos = 0;
+        long bytes = 0;
+        long result = 0;
+        long end = System.nanoTime() + ITERATION_NANOS;
+
+        while (System.nanoTime() < end) {
+            for (int state = 0; state < states; ++state) operation.prepare(state);
+
+            long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            for (int state = 0; state < states; ++state) result += operation.run(state);
+            nanos += System.nanoTime() - start;
+            bytes += THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+            operations += states;
+        }
+
+        sink = result;
+        return new double[]{(double) nanos / operations, (double) bytes / operations};
+    }
+}
@@ -0,0 +1,247 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-shot instrumentation of DrInvisible_Bot: a latency histogram per BotPhase and counters of how the shots were
+ * chosen.
+ *
+ * One instance is meant to be shared by every bot of a run, like the opening book. Recording can be switched on and
+ * off at runtime, from code or over JMX; while it is off a bot only pays for reading one volatile flag per shot.
+ * Nothing is allocated while recording.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class BotMetrics implements BotMetricsMXBean {
+    private volatile boolean enabled;
+
+    private final LatencyHistogram[] phases = new LatencyHistogram[BotPhase.values().length];
+
+    // Shots taken while no ship was being sunk
+    private final LongAdder huntShots = new LongAdder();
+
+    // Shots popped from the sink stack
+    private final LongAdder sinkShots = new LongAdder();
+
+    // Shots read from the opening book
+    private final LongAdder bookShots = new LongAdder();
+
+    private final LongAdder diagonalSkewActivations = new LongAdder();
+
+    // Points popped from the sink stack, including the ones sinkMode skipped
+    private final LongAdder sinkStackPops = new LongAdder();
+
+    /**
+     * Constructor for metrics that start recording right away
+     */
+    public BotMetrics() {
+        this(true);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param enabled whether to start recording right away
+     */
+    public BotMetrics(boolean enabled) {
+        this.enabled = enabled;
+        for (int i = 0; i < phases.length; ++i) phases[i] = new LatencyHistogram();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Record the time spent in a phase
+     *
+     * @param phase
+     * @param nanos
+     */
+    public void recordPhase(BotPhase phase, long nanos) {
+        phases[phase.ordinal()].record(nanos);
+    }
+
+    /**
+     * Count a shot by where it came from
+     *
+     * @param fromBook  read from the opening book
+     * @param sinkShot  popped from the sink stack
+     * @param sinkPops  points popped from the sink stack to choose the shot
+     */
+    public void recordShot(boolean fromBook, boolean sinkShot, long sinkPops) {
+        if (fromBook) bookShots.increment();
+        else if (sinkShot) sinkShots.increment();
+        else huntShots.increment();
+
+        if (sinkPops > 0) sinkStackPops.add(sinkPops);
+    }
+
+    public void recordDiagonalSkew() {
+        diagonalSkewActivations.increment();
+    }
+
+    /**
+     * Returns the histogram of a phase, still being recorded into
+     *
+     * @param phase
+     * @return
+     */
+    public LatencyHistogram getHistogram(BotPhase phase) {
+        return phases[phase.ordinal()];
+    }
+
+    @Override
+    public long getHuntShots() {
+        return huntShots.sum();
+    }
+
+    @Override
+    public long getSinkShots() {
+        return sinkShots.sum();
+    }
+
+    @Override
+    public long getBookShots() {
+        return bookShots.sum();
+    }
+
+    @Override
+    public long getDiagonalSkewActivations() {
+        return diagonalSkewActivations.sum();
+    }
+
+    @Override
+    public long getSinkStackPops() {
+        return sinkStackPops.sum();
+    }
+
+    @Override
+    public Map<String, Long> getPhaseCounts() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (BotPhase phase : BotPhase.values()) result.put(phase.name(), getHistogram(phase).getCount());
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getPhaseMeanNanos() {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (BotPhase phase : BotPhase.values()) result.put(phase.name(), getHistogram(phase).getMean());
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseP99Nanos() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (BotPhase phase : BotPhase.values()) result.put(phase.name(), getHistogram(phase).getValueAtPercentile(99));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseMaxNanos() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (BotPhase phase : BotPhase.values()) result.put(phase.name(), getHistogram(phase).getMax());
+        return result;
+    }
+
+    @Override
+    public long getPhasePercentileNanos(String phase, double percentile) {
+        return getHistogram(BotPhase.valueOf(phase)).getValueAtPercentile(percentile);
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : phases) histogram.reset();
+        huntShots.reset();
+        sinkShots.reset();
+        bookShots.reset();
+        diagonalSkewActivations.reset();
+        sinkStackPops.reset();
+    }
+
+    /**
+     * Take a copy of the metrics recorded so far
+     *
+     * @return
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Register these metrics with the platform MBean server
+     *
+     * @param name object name, e.g. "battleship:type=BotMetrics"
+     * @throws JMException if the name is invalid or already registered
+     */
+    public void register(String name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+    }
+
+    /**
+     * Immutable copy of the metrics at one point in time
+     */
+    public static final class Snapshot {
+        public final long huntShots;
+        public final long sinkShots;
+        public final long bookShots;
+        public final long diagonalSkewActivations;
+        public final long sinkStackPops;
+
+        // Per phase, indexed by BotPhase ordinal
+        public final long[] count;
+        public final double[] meanNanos;
+        public final long[] p50Nanos;
+        public final long[] p99Nanos;
+        public final long[] maxNanos;
+
+        private Snapshot(BotMetrics metrics) {
+            huntShots = metrics.getHuntShots();
+            sinkShots = metrics.getSinkShots();
+            bookShots = metrics.getBookShots();
+            diagonalSkewActivations = metrics.getDiagonalSkewActivations();
+            sinkStackPops = metrics.getSinkStackPops();
+
+            int phases = BotPhase.values().length;
+            count = new long[phases];
+            meanNanos = new double[phases];
+            p50Nanos = new long[phases];
+            p99Nanos = new long[phases];
+            maxNanos = new long[phases];
+            for (BotPhase phase : BotPhase.values()) {
+                LatencyHistogram histogram = metrics.getHistogram(phase);
+                int i = phase.ordinal();
+                count[i] = histogram.getCount();
+                meanNanos[i] = histogram.getMean();
+                p50Nanos[i] = histogram.getValueAtPercentile(50);
+                p99Nanos[i] = histogram.getValueAtPercentile(99);
+                maxNanos[i] = histogram.getMax();
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(String.format("Shots - %d hunt, %d sink, %d book; %d diagonal skews, %d sink stack pops\n",
+                    huntShots, sinkShots, bookShots, diagonalSkewActivations, sinkStackPops));
+            builder.append(String.format("%-18s %10s %10s %10s %10s %10s\n", "Phase", "count", "mean ns", "p50 ns", "p99 ns", "max ns"));
+            for (BotPhase phase : BotPhase.values()) {
+                int i = phase.ordinal();
+                builder.append(String.format("%-18s %10d %10.0f %10d %10d %10d\n", phase, count[i], meanNanos[i],
+                        p50Nanos[i], p99Nanos[i], maxNanos[i]));
+            }
+
+            return builder.toString();
+        }
+    }
+}
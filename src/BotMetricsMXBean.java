@@ -0,0 +1,44 @@
+import java.util.Map;
+
+/**
+ * Management interface of BotMetrics, so the metrics of a running bot can be read and toggled from JConsole or any
+ * other JMX client
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public interface BotMetricsMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getHuntShots();
+
+    long getSinkShots();
+
+    long getBookShots();
+
+    long getDiagonalSkewActivations();
+
+    long getSinkStackPops();
+
+    // Per phase, keyed by the BotPhase name
+    Map<String, Long> getPhaseCounts();
+
+    Map<String, Double> getPhaseMeanNanos();
+
+    Map<String, Long> getPhaseP99Nanos();
+
+    Map<String, Long> getPhaseMaxNanos();
+
+    /**
+     * Returns the latency of a phase at a percentile
+     *
+     * @param phase      BotPhase name
+     * @param percentile between 0 and 100
+     * @return
+     */
+    long getPhasePercentileNanos(String phase, double percentile);
+
+    void reset();
+}
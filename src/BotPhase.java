@@ -0,0 +1,8 @@
+public enum BotPhase {
+    FireShot,
+    UpdateProbability,
+    SinkMode,
+    GetNextShot,
+    HandleShotHit,
+    HandleAfterShot
+}
@@ -1,17 +1,36 @@
 /**
  * Class to store information for each cell including probability, CellState
+ *
+ * A cell either stores its own state and probability, or is a view over one index of a PackedBoard
  */
 
 public final class Cell {
     CellState state;
     double probability;
 
+    // Packed storage this cell is a view of, null for a cell with its own storage
+    private final PackedBoard packed;
+    private final int index;
+
     /**
      * Constructor for cell
      */
     public Cell() {
         this.state = CellState.Empty;
         this.probability = 0;
+        this.packed = null;
+        this.index = 0;
+    }
+
+    /**
+     * Constructor for a cell that is a view over packed storage
+     *
+     * @param packed
+     * @param index  index of the cell in the packed storage
+     */
+    public Cell(PackedBoard packed, int index) {
+        this.packed = packed;
+        this.index = index;
     }
 
     /**
@@ -20,7 +39,7 @@ public final class Cell {
      * @return
      */
     public final boolean isCellSunk() {
-        return state.equals(CellState.Sunk);
+        return getCellState() == CellState.Sunk;
     }
 
     /**
@@ -29,7 +48,7 @@ public final class Cell {
      * @return
      */
     public final boolean isCellHit() {
-        return state.equals(CellState.Hit);
+        return getCellState() == CellState.Hit;
     }
 
     /**
@@ -38,7 +57,7 @@ public final class Cell {
      * @return
      */
     public final boolean isCellEmpty() {
-        return state.equals(CellState.Empty);
+        return getCellState() == CellState.Empty;
     }
 
     /**
@@ -47,6 +66,7 @@ public final class Cell {
      * @return
      */
     public final double getProbability() {
+        if (packed != null) return packed.density[index];
         return this.probability;
     }
 
@@ -54,7 +74,18 @@ public final class Cell {
      * Increment the probability by 1
      */
     public final void incrementProbability() {
-        this.probability += 1;
+        if (packed != null) ++packed.density[index];
+        else this.probability += 1;
+    }
+
+    /**
+     * Increase the probability
+     *
+     * @param amount
+     */
+    public final void addProbability(int amount) {
+        if (packed != null) packed.density[index] += amount;
+        else this.probability += amount;
     }
 
     /**
@@ -63,14 +94,16 @@ public final class Cell {
      * @param probability
      */
     public final void setProbability(double probability) {
-        this.probability = probability;
+        if (packed != null) packed.density[index] = (int) probability;
+        else this.probability = probability;
     }
 
     /**
      * Reset the probability
      */
     public final void resetProbability() {
-        this.probability = 0;
+        if (packed != null) packed.density[index] = 0;
+        else this.probability = 0;
     }
 
     /**
@@ -79,6 +112,7 @@ public final class Cell {
      * @return
      */
     public final CellState getCellState() {
+        if (packed != null) return packed.getCellState(index);
         return this.state;
     }
 
@@ -88,6 +122,7 @@ public final class Cell {
      * @param state
      */
     public final void setCellState(CellState state) {
-        this.state = state;
+        if (packed != null) packed.setCellState(index, state);
+        else this.state = state;
     }
 }
\ No newline at end of file
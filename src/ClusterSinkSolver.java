@@ -0,0 +1,424 @@
+import java.awt.Point;
+import java.util.Arrays;
+
+/**
+ * Sink mode working on clusters of hit cells instead of the whole board.
+ *
+ * The sink stack of VirtualField follows one line of hits at a time. When it runs dry it scans the board for hit
+ * cells, and when a ship sinks it measures the ship along the last two hits, which goes wrong when ships touch.
+ * This solver keeps the Hit cells that are not known to be sunk in a union-find over packed cells
+ * (x * boardSize + y), so that touching hits form one cluster, and a circular list through each cluster's cells.
+ *
+ * The next shot works on the cluster of the most recent live hit. Every legal placement of an alive ship that covers
+ * some of its hits is weighed by the number of hits it covers, since a placement explaining more hits is far more
+ * likely, and the empty cell covered by the most weight is shot, with ties going to the denser cell of the heat
+ * map. Each placement is counted once, from the first of the cluster's hits it covers.
+ *
+ * When a ship sinks, its cells are a placement of an alive length through the sunk cell made of hits of the
+ * cluster. Of the possible placements, the solver prefers one that leaves the other hits of the cluster coverable by
+ * the remaining ships, then the longest, then the one hit most recently. The ship's cells are marked Sunk on the
+ * field and the rest of the cluster is rebuilt.
+ *
+ * Work per shot is proportional to the cluster, not the board. The solver keeps its own state next to the field's;
+ * it does not go into FieldSnapshot, and the field's hitPoints and sink stack stay empty while it is used.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class ClusterSinkSolver {
+    // Weight of a placement covering k hits of the cluster is 1 << (HIT_WEIGHT_BITS * (k - 1))
+    private static final int HIT_WEIGHT_BITS = 5;
+
+    private final int boardSize;
+
+    // Union-find parent of each live hit, -1 for any other cell
+    private final int[] parent;
+
+    // Number of cells of the cluster of each root
+    private final int[] clusterSize;
+
+    // Next cell of the same cluster, a circular list through its cells
+    private final int[] next;
+
+    // Number of the hit of each hit cell, in the order of the shots
+    private final int[] hitTime;
+    private int hits;
+
+    // Live hits, most recent last. Cells that are no longer live are skipped when reached
+    private final int[] recent;
+    private int recentCount;
+
+    // Weight of each empty cell while choosing a shot, and the cells with a weight
+    private final long[] weight;
+    private final int[] touched;
+
+    // Cells of one cluster, and the cells of the last cluster collected marked with the number of the collection
+    private final int[] members;
+    private final int[] memberMark;
+    private int collections;
+
+    // Alive ships of each length
+    private final int[] multiplicity;
+
+    // Sinks whose ship could not be worked out
+    private int unresolvedSinks;
+
+    // Placement of the last ship resolved by resolveSunk
+    private int sunkPlacement;
+
+    /**
+     * Constructor
+     *
+     * @param boardSize
+     */
+    public ClusterSinkSolver(int boardSize) {
+        int cells = boardSize * boardSize;
+
+        this.boardSize = boardSize;
+        this.parent = new int[cells];
+        this.clusterSize = new int[cells];
+        this.next = new int[cells];
+        this.hitTime = new int[cells];
+        this.recent = new int[cells];
+        this.weight = new long[cells];
+        this.touched = new int[cells];
+        this.members = new int[cells];
+        this.memberMark = new int[cells];
+        this.multiplicity = new int[boardSize + 1];
+        Arrays.fill(parent, -1);
+    }
+
+    /**
+     * Add a cell that has just been hit. The field must already have it as Hit
+     *
+     * @param cell
+     */
+    public void addHit(int cell) {
+        if (parent[cell] >= 0) return;
+
+        hitTime[cell] = ++hits;
+        recent[recentCount++] = cell;
+        link(cell);
+    }
+
+    /**
+     * Make a cell a cluster of its own and merge it with its live neighbours
+     *
+     * @param cell
+     */
+    private void link(int cell) {
+        parent[cell] = cell;
+        clusterSize[cell] = 1;
+        next[cell] = cell;
+
+        int x = cell / boardSize, y = cell % boardSize;
+        if (x > 0) union(cell, cell - boardSize);
+        if (x < boardSize - 1) union(cell, cell + boardSize);
+        if (y > 0) union(cell, cell - 1);
+        if (y < boardSize - 1) union(cell, cell + 1);
+    }
+
+    private int find(int cell) {
+        while (parent[cell] != cell) {
+            parent[cell] = parent[parent[cell]];
+            cell = parent[cell];
+        }
+
+        return cell;
+    }
+
+    private void union(int a, int b) {
+        if (parent[b] < 0) return;
+
+        int rootA = find(a), rootB = find(b);
+        if (rootA == rootB) return;
+
+        if (clusterSize[rootA] < clusterSize[rootB]) {
+            int swap = rootA;
+            rootA = rootB;
+            rootB = swap;
+        }
+
+        parent[rootB] = rootA;
+        clusterSize[rootA] += clusterSize[rootB];
+
+        // Splice the two circular lists
+        int swap = next[rootA];
+        next[rootA] = next[rootB];
+        next[rootB] = swap;
+    }
+
+    private boolean isLive(int cell) {
+        return parent[cell] >= 0;
+    }
+
+    private boolean isMember(int cell) {
+        return memberMark[cell] == collections;
+    }
+
+    /**
+     * Copy the cells of the cluster of a cell into members, and mark them so that isMember tells them apart
+     *
+     * @param cell
+     * @return the number of cells
+     */
+    private int collect(int cell) {
+        int count = 0;
+        int member = cell;
+        ++collections;
+        do {
+            members[count++] = member;
+            memberMark[member] = collections;
+            member = next[member];
+        } while (member != cell);
+
+        return count;
+    }
+
+    /**
+     * Returns whether some hits are still to be sunk
+     *
+     * @return
+     */
+    public boolean hasTargets() {
+        while (recentCount > 0 && !isLive(recent[recentCount - 1])) --recentCount;
+        return recentCount > 0;
+    }
+
+    /**
+     * Returns the number of sunk ships whose cells could not be worked out
+     *
+     * @return
+     */
+    public int getUnresolvedSinks() {
+        return unresolvedSinks;
+    }
+
+    /**
+     * Returns the placement of the last ship resolved by resolveSunk, numbered as in VirtualField.setCellStateSunk
+     *
+     * @return
+     */
+    public int getSunkPlacement() {
+        return sunkPlacement;
+    }
+
+    /**
+     * Choose the next shot at the cluster of the most recent live hit, with probabilities up to date
+     *
+     * @param field
+     * @return the shot, or null if there is no hit to sink
+     */
+    public Point nextShot(VirtualField field) {
+        countAliveShips(field);
+
+        while (hasTargets()) {
+            int root = find(recent[recentCount - 1]);
+            int shot = targetCluster(root, field);
+            if (shot >= 0) return field.pointAt(shot / boardSize, shot % boardSize);
+
+            // No alive ship can cover these hits any more; leave them to the heat map
+            int count = collect(root);
+            for (int i = 0; i < count; ++i) parent[members[i]] = -1;
+        }
+
+        return null;
+    }
+
+    private void countAliveShips(VirtualField field) {
+        for (int length = 1; length <= boardSize; ++length) multiplicity[length] = 0;
+        for (int i = 0; i < field.aliveShips.size(); ++i) {
+            int length = field.aliveShips.get(i);
+            if (length >= 1 && length <= boardSize) ++multiplicity[length];
+        }
+    }
+
+    /**
+     * Weigh the empty cells around a cluster by the placements covering its hits
+     *
+     * @param root
+     * @param field
+     * @return the best cell, or -1 if no placement covers the cluster
+     */
+    private int targetCluster(int root, VirtualField field) {
+        int count = collect(root);
+        int touchedCount = 0;
+
+        for (int i = 0; i < count; ++i) {
+            int hit = members[i];
+
+            for (int length = 1; length <= boardSize; ++length) {
+                if (multiplicity[length] == 0) continue;
+
+                for (int step = 1; step <= boardSize; step += boardSize - 1) {
+                    int position = step == 1 ? hit % boardSize : hit / boardSize;
+
+                    for (int offset = 0; offset < length; ++offset) {
+                        if (position - offset < 0 || position - offset + length > boardSize) continue;
+
+                        int start = hit - offset * step;
+                        int covered = 0, empty = 0;
+                        boolean legal = true;
+                        for (int l = 0, cell = start; l < length && legal; ++l, cell += step) {
+                            Cell state = field.board[cell / boardSize][cell % boardSize];
+                            if (state.isCellEmpty()) {
+                                ++empty;
+                            } else if (state.isCellHit() && isLive(cell)) {
+                                // Counted from its first hit of the cluster only
+                                if (isMember(cell) && covered++ == 0 && cell != hit) legal = false;
+                            } else {
+                                legal = false;
+                            }
+                        }
+
+                        if (!legal || empty == 0) continue;
+
+                        long placementWeight = (long) multiplicity[length] << (HIT_WEIGHT_BITS * (Math.min(covered, 12) - 1));
+                        for (int l = 0, cell = start; l < length; ++l, cell += step) {
+                            if (!field.board[cell / boardSize][cell % boardSize].isCellEmpty()) continue;
+                            if (weight[cell] == 0) touched[touchedCount++] = cell;
+                            weight[cell] += placementWeight;
+                        }
+                    }
+                }
+            }
+        }
+
+        int best = -1;
+        for (int i = 0; i < touchedCount; ++i) {
+            int cell = touched[i];
+            if (best < 0 || weight[cell] > weight[best] || weight[cell] == weight[best]
+                    && field.board[cell / boardSize][cell % boardSize].getProbability() >= field.board[best / boardSize][best % boardSize].getProbability())
+                best = cell;
+        }
+
+        for (int i = 0; i < touchedCount; ++i) weight[touched[i]] = 0;
+        return best;
+    }
+
+    /**
+     * Work out the ship that a shot has just sunk, mark its cells Sunk on the field and take them out of their
+     * cluster. If no ship fits, only the shot cell is marked
+     *
+     * @param cell  the shot that sank the ship, already added as a hit
+     * @param field
+     * @return the length of the ship, or 0 if it could not be worked out
+     */
+    public int resolveSunk(int cell, VirtualField field) {
+        countAliveShips(field);
+        int count = isLive(cell) ? collect(find(cell)) : 0;
+        int root = isLive(cell) ? find(cell) : -1;
+
+        int bestLength = 0, bestStart = -1, bestStep = 0, bestRecency = -1;
+        boolean bestConsistent = false;
+
+        for (int length = 1; length <= boardSize && root >= 0; ++length) {
+            if (multiplicity[length] == 0) continue;
+
+            for (int step = 1; step <= boardSize; step += boardSize - 1) {
+                int position = step == 1 ? cell % boardSize : cell / boardSize;
+
+                for (int offset = 0; offset < length; ++offset) {
+                    if (position - offset < 0 || position - offset + length > boardSize) continue;
+
+                    int start = cell - offset * step;
+                    int recency = Integer.MAX_VALUE;
+                    boolean allHits = true;
+                    for (int l = 0, c = start; l < length && allHits; ++l, c += step) {
+                        allHits = isMember(c);
+                        recency = Math.min(recency, hitTime[c]);
+                    }
+                    if (!allHits) continue;
+
+                    boolean consistent = explainsRest(length, start, step, count, field);
+                    if (bestLength > 0 && (bestConsistent && !consistent
+                            || bestConsistent == consistent && (length < bestLength || length == bestLength && recency <= bestRecency)))
+                        continue;
+
+                    bestLength = length;
+                    bestStart = start;
+                    bestStep = step;
+                    bestRecency = recency;
+                    bestConsistent = consistent;
+                }
+            }
+        }
+
+        if (bestLength == 0) {
+            ++unresolvedSinks;
+            field.setCellState(cell / boardSize, cell % boardSize, CellState.Sunk);
+            if (root >= 0) relink(count, field);
+            return 0;
+        }
+
+        for (int l = 0, c = bestStart; l < bestLength; ++l, c += bestStep)
+            field.setCellState(c / boardSize, c % boardSize, CellState.Sunk);
+        relink(count, field);
+
+        int perLine = boardSize - bestLength + 1;
+        sunkPlacement = bestStep == 1 ? bestStart / boardSize * perLine + bestStart % boardSize
+                : boardSize * perLine + bestStart;
+        return bestLength;
+    }
+
+    /**
+     * Check whether every hit of the cluster outside a placement can still be covered by another alive ship
+     *
+     * @param length length of the placement, whose ship is taken out of the alive ships
+     * @param start
+     * @param step
+     * @param count  number of cells of the cluster in members
+     * @param field
+     * @return
+     */
+    private boolean explainsRest(int length, int start, int step, int count, VirtualField field) {
+        --multiplicity[length];
+        boolean explained = true;
+
+        for (int i = 0; i < count && explained; ++i) {
+            int hit = members[i];
+            if (inPlacement(hit, start, step, length)) continue;
+
+            explained = false;
+            for (int other = 1; other <= boardSize && !explained; ++other) {
+                if (multiplicity[other] == 0) continue;
+
+                for (int otherStep = 1; otherStep <= boardSize && !explained; otherStep += boardSize - 1) {
+                    int position = otherStep == 1 ? hit % boardSize : hit / boardSize;
+
+                    for (int offset = 0; offset < other && !explained; ++offset) {
+                        if (position - offset < 0 || position - offset + other > boardSize) continue;
+
+                        boolean legal = true;
+                        for (int l = 0, c = hit - offset * otherStep; l < other && legal; ++l, c += otherStep) {
+                            Cell state = field.board[c / boardSize][c % boardSize];
+                            legal = (state.isCellEmpty() || state.isCellHit()) && !inPlacement(c, start, step, length);
+                        }
+                        explained = legal;
+                    }
+                }
+            }
+        }
+
+        ++multiplicity[length];
+        return explained;
+    }
+
+    private boolean inPlacement(int cell, int start, int step, int length) {
+        if (step == 1) return cell / boardSize == start / boardSize && cell >= start && cell < start + length;
+        return cell % boardSize == start % boardSize && cell >= start && cell < start + length * boardSize && (cell - start) % boardSize == 0;
+    }
+
+    /**
+     * Rebuild the clusters of the cells in members that are still Hit on the field
+     *
+     * @param count
+     * @param field
+     */
+    private void relink(int count, VirtualField field) {
+        for (int i = 0; i < count; ++i) parent[members[i]] = -1;
+
+        for (int i = 0; i < count; ++i)
+            if (field.board[members[i] / boardSize][members[i] % boardSize].isCellHit()) link(members[i]);
+    }
+}
@@ -0,0 +1,66 @@
+import java.util.List;
+
+/**
+ * An engine computing the heat map of VirtualField from its own copy of the board.
+ *
+ * VirtualField forwards every cell state change to the engine, then asks it for the density of every cell once per
+ * shot. Densities are ints indexed by x * BOARD_SIZE + y; only their relative order matters to the bot.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public interface DensityEngine {
+    /**
+     * Set the state of a cell
+     *
+     * @param x
+     * @param y
+     * @param state
+     */
+    void setCellState(int x, int y, CellState state);
+
+    /**
+     * Bring the density map in line with the board and the list of alive ships
+     *
+     * @param aliveShips
+     */
+    void updateDensity(List<Integer> aliveShips);
+
+    /**
+     * Get the density of a cell
+     *
+     * @param x
+     * @param y
+     * @return
+     */
+    int getDensity(int x, int y);
+
+    /**
+     * Copy the density of every cell, indexed by x * BOARD_SIZE + y
+     *
+     * @param destination
+     */
+    void copyDensity(int[] destination);
+
+    /**
+     * Get the number of legal placements of one ship of a length covering a cell, for engines that count every
+     * length apart. The lengths of the alive ships are counted from the last updateDensity on
+     *
+     * @param length
+     * @param cell   x * BOARD_SIZE + y
+     * @return the count, or -1 if the engine does not count this length
+     */
+    default int getCoverage(int length, int cell) {
+        return -1;
+    }
+
+    /**
+     * Get the number of legal placements of one ship of a length on the whole board
+     *
+     * @param length
+     * @return the count, or -1 if the engine does not count this length
+     */
+    default int getPlacementCount(int length) {
+        return -1;
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Computes the Scan heat map of a packed board in one pass over whole rows and columns.
+ *
+ * For every alive length L the kernel first marks the legal placement starts, a cell c being a legal start along y
+ * when the L cells c, c + 1, ... are all free (Empty or Hit) and stay on the row, and along x when the cells c,
+ * c + BOARD_SIZE, ... are all free. The density of a cell is then the sum of the legal starts L - 1 cells before it,
+ * times the number of alive ships of that length. This is the same count as the placement loop of
+ * VirtualField.updateProbability, done as shifted ANDs and adds over the whole board, which maps onto SIMD lanes.
+ *
+ * There are two implementations with identical results: ScalarDensityKernel, and VectorDensityKernel built on the
+ * incubating Vector API, which needs --add-modules jdk.incubator.vector. The vector kernel is kept in the src-vector
+ * source root so that src builds without the module; create() picks it when it was built and the module is present,
+ * unless -Dbattleship.vector=false is set.
+ *
+ * A kernel keeps scratch buffers, so each VirtualField needs its own.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public interface DensityKernel {
+    // The size of the board
+    int BOARD_SIZE = 10;
+
+    // The number of cells on the board
+    int CELLS = BOARD_SIZE * BOARD_SIZE;
+
+    /**
+     * Compute the density of every cell
+     *
+     * @param states       CellState ordinal of each cell, indexed by x * BOARD_SIZE + y
+     * @param multiplicity number of alive ships of each length, indexed by length from 0 to BOARD_SIZE
+     * @param density      receives the density of each cell
+     */
+    void computeDensity(byte[] states, int[] multiplicity, int[] density);
+
+    /**
+     * Create the fastest kernel the platform supports
+     *
+     * @return
+     */
+    static DensityKernel create() {
+        if (!Boolean.parseBoolean(System.getProperty("battleship.vector", "true"))
+                || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty())
+            return new ScalarDensityKernel();
+
+        try {
+            // Loaded by name, so that the scalar kernel still links when src-vector or the module is missing
+            return (DensityKernel) Class.forName("VectorDensityKernel").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new ScalarDensityKernel();
+        }
+    }
+}
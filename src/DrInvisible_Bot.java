@@ -11,17 +11,209 @@ import java.awt.Point;
  */
 
 public class DrInvisible_Bot {
-    private final BattleShip battleShip;
+    // Hits counted when guessing the length of the last ship are capped at the fleet's cells plus this slack
+    // (19 for the default fleet)
+    private static final int LAST_SHIP_HITS_SLACK = 2;
+
+    // Game the shots are fired at, null when they are taken elsewhere
+    private final GameOracle battleShip;
     private final VirtualField virtualField;
 
+    // Number of ships of the fleet, and of ships sunk so far
+    private final int shipCount;
+    private int shipsSunk;
+
+    // Reusable buffer for the cells returned by the diagonal skew
+    private final int[] skewCells;
+
+    // Precomputed opening shots, null to compute every shot
+    private OpeningBook openingBook;
+
+    // Instrumentation shared with other bots, null for none
+    private BotMetrics metrics;
+
+    // Record of the shots of the current game, null for none
+    private GameTrace trace;
+
+    // Chooses the hunting shots, null to take the densest cell
+    private ShotLookahead lookahead;
+
+    // Sinks ships by clusters of hits, null for the sink stack of the field
+    private ClusterSinkSolver sinkSolver;
+
+    // Constants of the strategy
+    private StrategyParameters parameters = StrategyParameters.DEFAULT;
+
+    // Prior learning the placements of the sunk ships, null for none
+    private PlacementPrior placementPrior;
+
+    // Placements of the ships sunk so far, as indices in the prior's table
+    private int[] sunkPlacements;
+    private int sunkPlacementCount;
+
+    // Shot returned by nextShot and not reported yet, and where it came from
+    private Point pendingShot;
+    private ShotSource pendingSource;
+
+    // Whether the pending shot is timed, and the nanoseconds spent choosing it
+    private boolean pendingTimed;
+    private long pendingNanos;
+
     /**
      * Constructor keeps a copy of the BattleShip instance
      *
      * @param b previously created battleship instance - should be a new game
      */
     public DrInvisible_Bot(BattleShip b) {
+        this(new JarBattleShip(b));
+    }
+
+    /**
+     * Constructor keeps a copy of the game, either the API adapter, the in-process simulator or any other oracle
+     *
+     * @param b previously created game - should be a new game
+     */
+    public DrInvisible_Bot(GameOracle b) {
+        this(b, ProbabilityMode.Bitboard);
+    }
+
+    /**
+     * Constructor keeps a copy of the game and picks how the heat map is computed
+     *
+     * @param b               previously created game - should be a new game
+     * @param probabilityMode way of computing the heat map
+     */
+    public DrInvisible_Bot(GameOracle b, ProbabilityMode probabilityMode) {
+        this(b, new VirtualField(b.boardSize(), b.shipSizes(), probabilityMode, BoardLayout.Packed));
+    }
+
+    /**
+     * Constructor keeps a copy of the game and uses a density engine configured by the caller
+     *
+     * @param b             previously created game - should be a new game
+     * @param densityEngine engine computing the heat map, e.g. a MonteCarloField with a per-shot budget
+     */
+    public DrInvisible_Bot(GameOracle b, DensityEngine densityEngine) {
+        this(b, new VirtualField(b.boardSize(), b.shipSizes(), densityEngine, BoardLayout.Packed));
+    }
+
+    /**
+     * Constructor for a game already in progress, used to resume from a recorded board state
+     *
+     * @param b            game in progress
+     * @param virtualField the bot's view of that game
+     */
+    DrInvisible_Bot(GameOracle b, VirtualField virtualField) {
+        this(b, virtualField, b.shipSizes().length);
+    }
+
+    /**
+     * Constructor for a game whose shots are taken elsewhere, such as by a client of the shot advisor. The game is
+     * played with nextShot and reportShot, and fireShot is refused
+     *
+     * @param boardSize       size of the board
+     * @param shipSizes       lengths of the ships of the fleet
+     * @param probabilityMode way of computing the heat map
+     */
+    public DrInvisible_Bot(int boardSize, int[] shipSizes, ProbabilityMode probabilityMode) {
+        this(null, new VirtualField(boardSize, shipSizes, probabilityMode, BoardLayout.Packed), shipSizes.length);
+    }
+
+    private DrInvisible_Bot(GameOracle b, VirtualField virtualField, int shipCount) {
         this.battleShip = b;
-        virtualField = new VirtualField(battleShip.shipSizes());
+        this.virtualField = virtualField;
+        this.shipCount = shipCount;
+        this.shipsSunk = Math.max(0, shipCount - virtualField.aliveShips.size());
+        this.skewCells = new int[virtualField.BOARD_SIZE * virtualField.BOARD_SIZE];
+    }
+
+    /**
+     * Look up the first shots in an opening book before computing them. The book must have been built with the
+     * same probability mode as this bot
+     *
+     * @param openingBook
+     */
+    public void setOpeningBook(OpeningBook openingBook) {
+        if (openingBook != null && virtualField.BOARD_SIZE != VirtualField.DEFAULT_BOARD_SIZE)
+            throw new IllegalArgumentException("Opening book needs a " + VirtualField.DEFAULT_BOARD_SIZE + " x " + VirtualField.DEFAULT_BOARD_SIZE + " board");
+        if (openingBook != null && lookahead != null)
+            throw new IllegalArgumentException("An opening book holds the shots of the densest cell, it cannot be combined with a lookahead");
+
+        this.openingBook = openingBook;
+    }
+
+    /**
+     * Share density maps with other bots through a cache built for the same probability mode as this bot
+     *
+     * @param transpositionCache
+     */
+    public void setTranspositionCache(TranspositionCache transpositionCache) {
+        virtualField.setTranspositionCache(transpositionCache);
+    }
+
+    /**
+     * Record per-phase timings and shot counters into shared metrics while they are enabled
+     *
+     * @param metrics
+     */
+    public void setMetrics(BotMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Record every shot into a trace, which the caller begins and hands to a TraceWriter
+     *
+     * @param trace null for none
+     */
+    public void setTrace(GameTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Choose the hunting shots with a one-ply lookahead instead of taking the densest cell
+     *
+     * @param lookahead lookahead for the board size of the game, null for none
+     */
+    public void setLookahead(ShotLookahead lookahead) {
+        if (lookahead != null && openingBook != null)
+            throw new IllegalArgumentException("An opening book holds the shots of the densest cell, it cannot be combined with a lookahead");
+
+        this.lookahead = lookahead;
+    }
+
+    /**
+     * Sink ships with a solver working on clusters of hits instead of the sink stack of the field. Must be set
+     * before the first shot
+     *
+     * @param sinkSolver solver for the board size of the game, null for the sink stack
+     */
+    public void setSinkSolver(ClusterSinkSolver sinkSolver) {
+        this.sinkSolver = sinkSolver;
+    }
+
+    /**
+     * Play with other strategy constants than StrategyParameters.DEFAULT
+     *
+     * @param parameters
+     */
+    public void setParameters(StrategyParameters parameters) {
+        this.parameters = parameters;
+        virtualField.setSinkOrder(parameters.sinkOrder);
+    }
+
+    /**
+     * Teach a prior where the ships of this game were, once they are all sunk. The ships whose placement the bot
+     * could not work out, such as a last ship guessed from the hit count, are left out
+     *
+     * @param placementPrior prior for the board size of the game, null for none
+     */
+    public void setPlacementPrior(PlacementPrior placementPrior) {
+        if (placementPrior != null && placementPrior.getBoardSize() != virtualField.BOARD_SIZE)
+            throw new IllegalArgumentException("Placement prior of a " + placementPrior.getBoardSize() + " x " + placementPrior.getBoardSize() + " board");
+
+        this.placementPrior = placementPrior;
+        this.sunkPlacements = placementPrior != null ? new int[shipCount] : null;
+        this.sunkPlacementCount = 0;
     }
 
     /**
@@ -31,59 +223,178 @@ public class DrInvisible_Bot {
      */
 
     public boolean fireShot() {
-        // There is one ship remaining and it is the smallest ship, then do diagonal skew
-        if (virtualField.aliveShips.size() == 1 && virtualField.aliveShips.get(0) == 2 && virtualField.hitPoints.size() == 0) {
-            virtualField.diagonalSkew();
-        }
+        if (battleShip == null) throw new IllegalStateException("Shots of this game are taken elsewhere");
+
+        Point shot = nextShot();
+        ShotResult result = this.battleShip.fire(shot.x, shot.y);
+        reportShot(result);
+
+        return result.isHit();
+    }
+
+    /**
+     * Choose the next shot without taking it, for a game whose shots are taken elsewhere. Its outcome must be
+     * reported with reportShot. While metrics are enabled every phase is timed, otherwise no clock is read
+     *
+     * @return
+     */
+    public Point nextShot() {
+        if (pendingShot != null) throw new IllegalStateException("The previous shot has not been reported");
 
-        virtualField.updateProbability();
+        BotMetrics metrics = this.metrics;
+        boolean timed = metrics != null && metrics.isEnabled();
+        long start = timed ? System.nanoTime() : 0;
+        long sinkPopsBefore = timed ? virtualField.getSinkStackPops() : 0;
 
-        // Store the number of sunk ships before and after a shot
-        int shipsSunkBeforeShot = this.battleShip.numberOfShipsSunk();
+        Point shot = getBookShot();
+        ShotSource source = ShotSource.Book;
 
-        Point shot = virtualField.sinkMode();
         if (shot == null) {
-            shot = virtualField.getNextShot();
+            long time = timed ? System.nanoTime() : 0;
+            virtualField.updateProbability();
+            if (timed) metrics.recordPhase(BotPhase.UpdateProbability, System.nanoTime() - time);
+
+            // Only the smallest ships are left, then do diagonal skew
+            if (parameters.isSkewActive(virtualField)) {
+                virtualField.diagonalSkew(skewCells, parameters.skewMultiplier);
+                if (timed) metrics.recordDiagonalSkew();
+            }
+
+            time = timed ? System.nanoTime() : 0;
+            shot = sinkSolver != null ? sinkSolver.nextShot(virtualField) : virtualField.sinkMode();
+            if (timed) metrics.recordPhase(BotPhase.SinkMode, System.nanoTime() - time);
+
+            source = ShotSource.Sink;
+            if (shot == null) {
+                time = timed ? System.nanoTime() : 0;
+                shot = lookahead != null ? lookahead.chooseShot(virtualField) : virtualField.getNextShot();
+                if (timed) metrics.recordPhase(BotPhase.GetNextShot, System.nanoTime() - time);
+                source = ShotSource.Hunt;
+            }
+        }
+
+        if (timed) {
+            metrics.recordShot(source == ShotSource.Book, source == ShotSource.Sink, virtualField.getSinkStackPops() - sinkPopsBefore);
+            pendingNanos = System.nanoTime() - start;
         }
 
-        boolean hit = this.battleShip.shoot(shot);
+        pendingShot = shot;
+        pendingSource = source;
+        pendingTimed = timed;
+        return shot;
+    }
 
-        if (hit) {
-            virtualField.handleShotHit(shot);
+    /**
+     * Apply the outcome of the shot returned by nextShot. The FireShot phase of a timed shot adds the time spent
+     * here to the time spent choosing it, leaving out the time taken by the shot itself
+     *
+     * @param result
+     */
+    public void reportShot(ShotResult result) {
+        Point shot = pendingShot;
+        if (shot == null) throw new IllegalStateException("No shot to report");
+        pendingShot = null;
+
+        BotMetrics metrics = this.metrics;
+        boolean timed = pendingTimed && metrics != null;
+        long start = timed ? System.nanoTime() : 0;
+
+        if (result.isHit()) {
+            // The sink stack is ordered by the heat map, which a book shot did not compute
+            if (pendingSource == ShotSource.Book) virtualField.updateProbability();
+            handleShotHit(shot);
+            if (timed) metrics.recordPhase(BotPhase.HandleShotHit, System.nanoTime() - start);
         } else {
-            virtualField.board[shot.x][shot.y].setCellState(CellState.Miss);
+            virtualField.setCellState(shot.x, shot.y, CellState.Miss);
         }
 
-        handleAfterShot(shipsSunkBeforeShot, shot);
+        long time = timed ? System.nanoTime() : 0;
+        handleAfterShot(result, shot);
+        if (timed) {
+            long end = System.nanoTime();
+            metrics.recordPhase(BotPhase.HandleAfterShot, end - time);
+            metrics.recordPhase(BotPhase.FireShot, pendingNanos + end - start);
+        }
+
+        if (trace != null) recordTrace(shot, result, pendingSource);
+    }
+
+    /**
+     * Returns the number of ships sunk so far
+     *
+     * @return
+     */
+    public int getShipsSunk() {
+        return shipsSunk;
+    }
+
+    private void recordTrace(Point shot, ShotResult result, ShotSource source) {
+        trace.recordShot(shot.x * virtualField.BOARD_SIZE + shot.y, result.isHit(), result == ShotResult.Sunk, source);
+    }
+
+    /**
+     * Returns the shot of the opening book for the current position, or null if there is none
+     *
+     * @return
+     */
+    private Point getBookShot() {
+        if (openingBook == null || !virtualField.isMissOnly()) return null;
 
-        return hit;
+        int cell = openingBook.lookup(virtualField.getMissLo(), virtualField.getMissHi(), OpeningBook.fleetKey(virtualField.aliveShips));
+        return cell < 0 ? null : virtualField.pointAt(cell / virtualField.BOARD_SIZE, cell % virtualField.BOARD_SIZE);
     }
 
-    private void handleAfterShot(int shipsSunkBeforeShot, Point shot) {
-        int shipsSunkAfterShot = this.battleShip.numberOfShipsSunk();
+    private void handleShotHit(Point shot) {
+        if (sinkSolver == null) {
+            virtualField.handleShotHit(shot);
+            return;
+        }
+
+        virtualField.setCellState(shot.x, shot.y, CellState.Hit);
+        sinkSolver.addHit(shot.x * virtualField.BOARD_SIZE + shot.y);
+    }
 
-        if (shipsSunkAfterShot > shipsSunkBeforeShot) {
-            int length = virtualField.getSunkLength();
+    private void handleAfterShot(ShotResult result, Point shot) {
+        if (result == ShotResult.Sunk) {
+            ++shipsSunk;
 
-            boolean foundShip = false;
-            for (int i = 0; i < virtualField.aliveShips.size(); ++i)
-                if (length == virtualField.aliveShips.get(i) && length > 1) {
-                    virtualField.aliveShips.remove(i);
-                    foundShip = true;
-                    break;
+            if (sinkSolver != null) {
+                int length = sinkSolver.resolveSunk(shot.x * virtualField.BOARD_SIZE + shot.y, virtualField);
+                if (length > 0) {
+                    virtualField.aliveShips.remove((Integer) length);
+                    recordSunkPlacement(length, sinkSolver.getSunkPlacement());
                 }
+            } else {
+                int length = virtualField.getSunkLength();
+
+                boolean foundShip = false;
+                for (int i = 0; i < virtualField.aliveShips.size(); ++i)
+                    if (length == virtualField.aliveShips.get(i)) {
+                        virtualField.aliveShips.remove(i);
+                        foundShip = true;
+                        break;
+                    }
+
+                if (foundShip) recordSunkPlacement(length, virtualField.setCellStateSunk(length));
 
-            if (foundShip) virtualField.setCellStateSunk(length);
+                virtualField.setCellState(shot.x, shot.y, CellState.Sunk);
+                virtualField.sunkShips.clear();
+                virtualField.hitPoints.clear();
+            }
 
-            virtualField.board[shot.x][shot.y].setCellState(CellState.Sunk);
-            virtualField.sunkShips.clear();
-            virtualField.hitPoints.clear();
-            if (shipsSunkAfterShot == this.battleShip.shipSizes().length - 1) {
-                int shotHits = virtualField.getNumberOfCellsWithState(CellState.Hit) + virtualField.getNumberOfCellsWithState(CellState.Sunk);
-                shotHits = Math.min(19, shotHits);
+            // The solver keeps track of the last ship unless it lost a sink
+            if (shipsSunk == shipCount - 1 && (sinkSolver == null || sinkSolver.getUnresolvedSinks() > 0)) {
+                int shotHits = Math.min(virtualField.getMaxHits() + LAST_SHIP_HITS_SLACK, virtualField.getHitOrSunkCells());
                 virtualField.aliveShips.clear();
                 virtualField.aliveShips.add(virtualField.getMaxHits() - shotHits);
             }
+
+            if (shipsSunk == shipCount && placementPrior != null) placementPrior.observeGame(sunkPlacements, sunkPlacementCount);
         }
     }
+
+    private void recordSunkPlacement(int length, int placement) {
+        if (placementPrior != null && sunkPlacementCount < sunkPlacements.length)
+            sunkPlacements[sunkPlacementCount++] = placementPrior.index(length, placement);
+    }
 }
@@ -0,0 +1,301 @@
+import java.util.List;
+
+/**
+ * Density engine counting whole fleet configurations instead of single ships.
+ *
+ * A configuration places every alive ship on the board without overlap, avoids Miss and Sunk cells and covers every
+ * Hit cell. The density of a cell is the share of configurations with a ship on that cell. Configurations are
+ * counted by a depth-first search memoized on (ship index, occupied cells), since the ships still to place are fixed
+ * by the index. A second, level-by-level pass pushes the number of ways to reach each state forward, so the
+ * coverage of a placement is (ways to reach the state) * (ways to complete it).
+ *
+ * Ships of the same length are counted in both orders. Swapping them maps the configurations onto themselves, so
+ * every ship of a run of equal lengths covers the cells the same way, and only the last ship of the run adds its
+ * coverage, times the length of the run. Placing the run as one unordered group keyed once in the memo counts half
+ * as many configurations but measures slower (1.8 ms against 1.1 ms per exact count over 40 games): the states
+ * between two ships of the run are shared by many placements of the longer ships, and a group loses that sharing.
+ *
+ * BotBenchmark puts a mid-game update at 610 to 790 us depending on the run, with 6 of its 12 states sampled.
+ *
+ * Early in the game the number of configurations explodes. When the estimate is too large or the memo table fills
+ * up, the density is estimated by a MonteCarloField instead. If no configuration fits the board at all (the
+ * bot's bookkeeping of sunk ships can be wrong when ships touch), the engine falls back to counting each ship on
+ * its own like BitboardField.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class ExactField implements DensityEngine {
+    // The size of the board
+    public static final int BOARD_SIZE = BitboardField.BOARD_SIZE;
+
+    // The number of cells on the board
+    public static final int CELLS = BitboardField.CELLS;
+
+    // Density of a cell covered in every configuration
+    public static final int DENSITY_SCALE = 1 << 20;
+
+    // Above this product of placement counts the exact count is not attempted
+    private static final double MAX_CONFIGURATION_ESTIMATE = 2e5;
+
+    // Memoized states before the exact count gives up
+    private static final int MAX_STATES = 1 << 14;
+
+    // Configurations drawn when the exact count gives up
+    private static final int SAMPLES = 20000;
+
+    // Hit plane: Hit cells, which must be covered by an alive ship
+    private long hitLo, hitHi;
+
+    // Blocked plane: Miss and Sunk cells
+    private long blockedLo, blockedHi;
+
+    private final FleetCandidates fleet = new FleetCandidates();
+
+    // Sampler used when the exact count gives up, without a time limit so that runs are reproducible
+    private final MonteCarloField sampler = new MonteCarloField(SAMPLES, Long.MAX_VALUE, 1);
+
+    // Expected coverage of each cell, before scaling
+    private final double[] coverage = new double[CELLS];
+
+    private final int[] density = new int[CELLS];
+
+    private final StateTable memo = new StateTable(MAX_STATES);
+    private final StateTable weights = new StateTable(MAX_STATES);
+    private boolean aborted;
+
+    /**
+     * Constructor for an empty board with no alive ships
+     */
+    public ExactField() {
+    }
+
+    @Override
+    public void setCellState(int x, int y, CellState state) {
+        int cell = x * BOARD_SIZE + y;
+        boolean hit = state == CellState.Hit;
+        boolean blocked = state == CellState.Miss || state == CellState.Sunk;
+
+        if (cell < 64) {
+            long bit = 1L << cell;
+            hitLo = hit ? hitLo | bit : hitLo & ~bit;
+            blockedLo = blocked ? blockedLo | bit : blockedLo & ~bit;
+        } else {
+            long bit = 1L << (cell - 64);
+            hitHi = hit ? hitHi | bit : hitHi & ~bit;
+            blockedHi = blocked ? blockedHi | bit : blockedHi & ~bit;
+        }
+
+        sampler.setCellState(x, y, state);
+    }
+
+    @Override
+    public void updateDensity(List<Integer> aliveShips) {
+        fleet.collect(aliveShips, blockedLo, blockedHi);
+
+        for (int cell = 0; cell < CELLS; ++cell) coverage[cell] = 0;
+
+        if (fleet.estimate() > MAX_CONFIGURATION_ESTIMATE) {
+            sampleDensity(aliveShips);
+            return;
+        }
+
+        aborted = false;
+        double total = fleet.shipCount > 0 ? countExact() : 0;
+        if (aborted) {
+            sampleDensity(aliveShips);
+        } else if (total > 0) {
+            for (int cell = 0; cell < CELLS; ++cell)
+                density[cell] = (int) Math.round(coverage[cell] / total * DENSITY_SCALE);
+        } else {
+            fleet.countIndependently(density);
+        }
+    }
+
+    /**
+     * Take the density from the sampler
+     *
+     * @param aliveShips
+     */
+    private void sampleDensity(List<Integer> aliveShips) {
+        sampler.updateDensity(aliveShips);
+        sampler.copyDensity(density);
+    }
+
+    @Override
+    public int getDensity(int x, int y) {
+        return density[x * BOARD_SIZE + y];
+    }
+
+    @Override
+    public void copyDensity(int[] destination) {
+        System.arraycopy(density, 0, destination, 0, CELLS);
+    }
+
+    /**
+     * Count every configuration and accumulate the coverage of each cell
+     *
+     * @return the number of configurations, meaningless if the count was aborted
+     */
+    private double countExact() {
+        aborted = false;
+        memo.clear();
+        weights.clear();
+
+        double total = count(0, 0, 0);
+        if (aborted || total == 0) return total;
+
+        // Push the number of ways to reach each state forward, one ship at a time
+        weights.add(0, 0, 0, 1);
+        int begin = 0;
+        for (int i = 0; i < fleet.shipCount; ++i) {
+            int end = weights.size;
+            int length = fleet.ships[i];
+
+            // Only the last ship of a run of equal lengths adds coverage, for the whole run
+            boolean lastOfRun = i + 1 == fleet.shipCount || fleet.ships[i + 1] != length;
+            int run = 1;
+            while (lastOfRun && run <= i && fleet.ships[i - run] == length) ++run;
+
+            for (int e = begin; e < end; ++e) {
+                long occupiedLo = weights.lo[e];
+                long occupiedHi = weights.hi[e];
+                double ways = weights.value[e];
+
+                for (int k = 0; k < fleet.candidateCount[i]; ++k) {
+                    int p = fleet.candidates[i][k];
+                    long placementLo = BitboardField.placementLo(length, p);
+                    long placementHi = BitboardField.placementHi(length, p);
+                    if ((placementLo & occupiedLo) != 0 || (placementHi & occupiedHi) != 0) continue;
+
+                    long nextLo = occupiedLo | placementLo;
+                    long nextHi = occupiedHi | placementHi;
+                    double completions = count(i + 1, nextLo, nextHi);
+                    if (completions == 0) continue;
+
+                    if (lastOfRun) addCoverage(length, p, run * ways * completions);
+
+                    if (i + 1 < fleet.shipCount) {
+                        int next = weights.find(i + 1, nextLo, nextHi);
+                        if (next >= 0) {
+                            weights.value[next] += ways;
+                        } else if (weights.add(i + 1, nextLo, nextHi, ways) < 0) {
+                            aborted = true;
+                            return 0;
+                        }
+                    }
+                }
+            }
+
+            begin = end;
+        }
+
+        return total;
+    }
+
+    /**
+     * Number of ways to place the ships from index i onwards, given the cells already occupied
+     *
+     * @param i
+     * @param occupiedLo
+     * @param occupiedHi
+     * @return
+     */
+    private double count(int i, long occupiedLo, long occupiedHi) {
+        int uncovered = Long.bitCount(hitLo & ~occupiedLo) + Long.bitCount(hitHi & ~occupiedHi);
+        if (i == fleet.shipCount) return uncovered == 0 ? 1 : 0;
+        if (uncovered > fleet.remainingCells[i]) return 0;
+
+        int entry = memo.find(i, occupiedLo, occupiedHi);
+        if (entry >= 0) return memo.value[entry];
+        if (aborted) return 0;
+
+        int length = fleet.ships[i];
+        double total = 0;
+        for (int k = 0; k < fleet.candidateCount[i]; ++k) {
+            int p = fleet.candidates[i][k];
+            long placementLo = BitboardField.placementLo(length, p);
+            long placementHi = BitboardField.placementHi(length, p);
+            if ((placementLo & occupiedLo) != 0 || (placementHi & occupiedHi) != 0) continue;
+
+            total += count(i + 1, occupiedLo | placementLo, occupiedHi | placementHi);
+        }
+
+        if (memo.add(i, occupiedLo, occupiedHi, total) < 0) aborted = true;
+        return total;
+    }
+
+    private void addCoverage(int length, int placement, double amount) {
+        int step = BitboardField.placementStep(length, placement);
+        for (int l = 0, cell = BitboardField.placementStart(length, placement); l < length; ++l, cell += step)
+            coverage[cell] += amount;
+    }
+
+    /**
+     * Open addressing table from (level, occupied cells) to a double, with entries kept in insertion order.
+     * Clearing only bumps a generation counter, so it costs nothing per shot
+     */
+    static final class StateTable {
+        final long[] lo;
+        final long[] hi;
+        final int[] level;
+        final double[] value;
+        int size;
+
+        private final int[] slots;
+        private final int[] slotGeneration;
+        private final int mask;
+        private int generation = 1;
+
+        StateTable(int maxEntries) {
+            lo = new long[maxEntries];
+            hi = new long[maxEntries];
+            level = new int[maxEntries];
+            value = new double[maxEntries];
+            slots = new int[Integer.highestOneBit(maxEntries) * 4];
+            slotGeneration = new int[slots.length];
+            mask = slots.length - 1;
+        }
+
+        void clear() {
+            size = 0;
+            ++generation;
+        }
+
+        int find(int level, long lo, long hi) {
+            for (int slot = hash(level, lo, hi); slotGeneration[slot] == generation; slot = (slot + 1) & mask) {
+                int entry = slots[slot];
+                if (this.lo[entry] == lo && this.hi[entry] == hi && this.level[entry] == level) return entry;
+            }
+
+            return -1;
+        }
+
+        /**
+         * Add an entry that is not in the table yet
+         *
+         * @return the entry, or -1 if the table is full
+         */
+        int add(int level, long lo, long hi, double value) {
+            if (size == this.lo.length) return -1;
+
+            int slot = hash(level, lo, hi);
+            while (slotGeneration[slot] == generation) slot = (slot + 1) & mask;
+
+            int entry = size++;
+            this.lo[entry] = lo;
+            this.hi[entry] = hi;
+            this.level[entry] = level;
+            this.value[entry] = value;
+            slots[slot] = entry;
+            slotGeneration[slot] = generation;
+            return entry;
+        }
+
+        private int hash(int level, long lo, long hi) {
+            long h = lo * 0x9E3779B97F4A7C15L ^ hi * 0xC2B2AE3D27D4EB4FL ^ level * 0x165667B19E3779F9L;
+            h ^= h >>> 29;
+            return (int) h & mask;
+        }
+    }
+}
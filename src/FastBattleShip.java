@@ -0,0 +1,206 @@
+import java.util.Arrays;
+
+/**
+ * In-process battleship simulator that can be seeded and reused.
+ *
+ * The fleet (2, 3, 3, 4, 5 on a 10 x 10 board unless configured otherwise) is placed the same way as the BattleShip
+ * API does: a random start cell and orientation, retried until the ship fits without overlapping another ship. The
+ * random numbers come from a SplitMix64 generator so that a seed always gives the same layout. Shots are answered
+ * from a per-cell ship index, and reset(seed) places a new fleet without allocating, so one instance can play any
+ * number of games.
+ *
+ * Cells are indexed by x * boardSize + y.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class FastBattleShip implements BattleshipGame {
+    // The size of the default board
+    public static final int BOARD_SIZE = 10;
+
+    // The sizes of the default fleet, same as the BattleShip API
+    static final int[] SHIP_SIZES = {2, 3, 3, 4, 5};
+
+    // Placement attempts before a fleet is considered not to fit the board
+    private static final int MAX_ATTEMPTS = 1_000_000;
+
+    private final int boardSize;
+
+    // Ship index occupying each cell, -1 for water
+    private final short[] shipAt;
+
+    // Cells that have been hit
+    private final boolean[] hits;
+
+    // Number of cells of each ship that have not been hit yet
+    private final int[] remaining;
+
+    // Placement of each ship among those of its length, numbered as in PlacementIndex
+    private final int[] placements;
+
+    private final int[] shipSizes;
+
+    private long randomState;
+
+    private int shipsSunk;
+
+    private int shotsTaken;
+
+    /**
+     * Constructor for a game seeded from the clock
+     */
+    public FastBattleShip() {
+        this(System.nanoTime());
+    }
+
+    /**
+     * Constructor for a seeded game
+     *
+     * @param seed seed for placing the fleet
+     */
+    public FastBattleShip(long seed) {
+        this(BOARD_SIZE, SHIP_SIZES, seed);
+    }
+
+    /**
+     * Constructor for a seeded game on a board of any size with any fleet
+     *
+     * @param boardSize
+     * @param shipSizes lengths of the ships, each at most boardSize
+     * @param seed      seed for placing the fleet
+     */
+    public FastBattleShip(int boardSize, int[] shipSizes, long seed) {
+        int cells = 0;
+        for (int size : shipSizes) {
+            if (size < 1 || size > boardSize) throw new IllegalArgumentException("Invalid ship size: " + size);
+            cells += size;
+        }
+        if (cells > boardSize * boardSize || shipSizes.length > Short.MAX_VALUE)
+            throw new IllegalArgumentException("Fleet does not fit a " + boardSize + " x " + boardSize + " board");
+
+        this.boardSize = boardSize;
+        this.shipSizes = shipSizes.clone();
+        this.shipAt = new short[boardSize * boardSize];
+        this.hits = new boolean[boardSize * boardSize];
+        this.remaining = new int[shipSizes.length];
+        this.placements = new int[shipSizes.length];
+        reset(seed);
+    }
+
+    /**
+     * Start a new game with a fleet placed from the seed
+     *
+     * @param seed
+     */
+    public void reset(long seed) {
+        randomState = seed;
+        Arrays.fill(shipAt, (short) -1);
+        Arrays.fill(hits, false);
+        shipsSunk = 0;
+        shotsTaken = 0;
+
+        for (int ship = 0; ship < shipSizes.length; ++ship) {
+            int length = shipSizes[ship];
+
+            int attempts = 0;
+            while (!place(ship, length, nextInt(boardSize), nextInt(boardSize), nextInt(2) == 0)) {
+                if (++attempts == MAX_ATTEMPTS)
+                    throw new IllegalArgumentException("Could not place the fleet on a " + boardSize + " x " + boardSize + " board");
+            }
+
+            remaining[ship] = length;
+        }
+    }
+
+    /**
+     * Place a ship if it fits on the board and does not overlap another ship
+     *
+     * @return true if the ship was placed
+     */
+    private boolean place(int ship, int length, int x, int y, boolean horizontal) {
+        int step = horizontal ? boardSize : 1;
+        if ((horizontal ? x : y) + length > boardSize) return false;
+
+        int start = x * boardSize + y;
+        for (int l = 0, cell = start; l < length; ++l, cell += step)
+            if (shipAt[cell] >= 0) return false;
+
+        for (int l = 0, cell = start; l < length; ++l, cell += step) shipAt[cell] = (short) ship;
+
+        int perLine = boardSize - length + 1;
+        placements[ship] = horizontal ? boardSize * perLine + start : x * perLine + y;
+        return true;
+    }
+
+    /**
+     * Next random number from the SplitMix64 generator, in [0, bound)
+     *
+     * @param bound
+     * @return
+     */
+    private int nextInt(int bound) {
+        long z = (randomState += 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        return (int) (((z >>> 32) * bound) >>> 32);
+    }
+
+    @Override
+    public int getPlacement(int ship) {
+        return placements[ship];
+    }
+
+    @Override
+    public boolean shoot(int x, int y) {
+        ++shotsTaken;
+        int cell = x * boardSize + y;
+        if (shipAt[cell] < 0) return false;
+
+        if (!hits[cell]) {
+            hits[cell] = true;
+            if (--remaining[shipAt[cell]] == 0) ++shipsSunk;
+        }
+
+        return true;
+    }
+
+    @Override
+    public ShotResult fire(int x, int y) {
+        ++shotsTaken;
+        int cell = x * boardSize + y;
+        if (shipAt[cell] < 0) return ShotResult.Miss;
+        if (hits[cell]) return ShotResult.Hit;
+
+        hits[cell] = true;
+        if (--remaining[shipAt[cell]] > 0) return ShotResult.Hit;
+
+        ++shipsSunk;
+        return ShotResult.Sunk;
+    }
+
+    @Override
+    public int numberOfShipsSunk() {
+        return shipsSunk;
+    }
+
+    @Override
+    public boolean allSunk() {
+        return shipsSunk == shipSizes.length;
+    }
+
+    @Override
+    public int totalShotsTaken() {
+        return shotsTaken;
+    }
+
+    @Override
+    public int[] shipSizes() {
+        return shipSizes;
+    }
+
+    @Override
+    public int boardSize() {
+        return boardSize;
+    }
+}
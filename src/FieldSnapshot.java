@@ -0,0 +1,115 @@
+import java.awt.*;
+import java.util.List;
+
+/**
+ * Immutable copy of the solver state of a VirtualField: the state of every cell, the hit points, the sink stack, the
+ * alive ships and the direction of the ship being sunk.
+ *
+ * Everything is kept in fixed-size primitive arrays, points as cell indexes x * boardSize + y, so taking a snapshot
+ * is a handful of array copies whatever has happened in the game. Probabilities are not kept, since they are
+ * recomputed from the state by updateProbability before every shot, and neither is the state of the density engine,
+ * which VirtualField.restore brings back in sync through setCellState.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class FieldSnapshot {
+    private static final CellState[] STATES = CellState.values();
+
+    private final int boardSize;
+
+    // CellState ordinal of each cell
+    private final byte[] states;
+
+    // Cells of VirtualField.hitPoints, oldest first
+    private final int[] hitPoints;
+
+    // Cells of VirtualField.sunkShips, bottom of the stack first
+    private final int[] sinkStack;
+
+    // Lengths of the alive ships, in the order of VirtualField.aliveShips
+    private final int[] aliveShips;
+
+    private final ShipDirection sinkHitDirection;
+
+    /**
+     * Constructor, copying the given state
+     *
+     * @param boardSize
+     * @param states           CellState ordinal of each cell, indexed by x * boardSize + y
+     * @param hitPoints
+     * @param sinkStack        bottom of the stack first
+     * @param aliveShips
+     * @param sinkHitDirection
+     */
+    FieldSnapshot(int boardSize, byte[] states, List<Point> hitPoints, List<Point> sinkStack, List<Integer> aliveShips,
+                  ShipDirection sinkHitDirection) {
+        this.boardSize = boardSize;
+        this.states = states;
+        this.hitPoints = toCells(hitPoints, boardSize);
+        this.sinkStack = toCells(sinkStack, boardSize);
+        this.aliveShips = new int[aliveShips.size()];
+        for (int i = 0; i < this.aliveShips.length; ++i) this.aliveShips[i] = aliveShips.get(i);
+        this.sinkHitDirection = sinkHitDirection;
+    }
+
+    private static int[] toCells(List<Point> points, int boardSize) {
+        int[] cells = new int[points.size()];
+        for (int i = 0; i < cells.length; ++i) cells[i] = points.get(i).x * boardSize + points.get(i).y;
+        return cells;
+    }
+
+    public int getBoardSize() {
+        return boardSize;
+    }
+
+    /**
+     * Get the state of a cell
+     *
+     * @param cell x * boardSize + y
+     * @return
+     */
+    public CellState getCellState(int cell) {
+        return STATES[states[cell]];
+    }
+
+    public int getHitPointCount() {
+        return hitPoints.length;
+    }
+
+    /**
+     * Get a hit point
+     *
+     * @param i 0 for the oldest
+     * @return the cell x * boardSize + y
+     */
+    public int getHitPoint(int i) {
+        return hitPoints[i];
+    }
+
+    public int getSinkStackSize() {
+        return sinkStack.length;
+    }
+
+    /**
+     * Get a point of the sink stack
+     *
+     * @param i 0 for the bottom of the stack
+     * @return the cell x * boardSize + y
+     */
+    public int getSinkStackPoint(int i) {
+        return sinkStack[i];
+    }
+
+    public int getAliveShipCount() {
+        return aliveShips.length;
+    }
+
+    public int getAliveShip(int i) {
+        return aliveShips[i];
+    }
+
+    public ShipDirection getSinkHitDirection() {
+        return sinkHitDirection;
+    }
+}
@@ -0,0 +1,92 @@
+import java.util.List;
+
+/**
+ * The alive ships of a board, longest first, each with the placements that avoid the blocked cells.
+ *
+ * Shared by the density engines that reason about whole fleets. Placements are indexes into the precomputed
+ * placements of BitboardField.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class FleetCandidates {
+    // The number of cells on the board
+    public static final int CELLS = BitboardField.CELLS;
+
+    // Alive ship lengths that fit on the board, longest first
+    public final int[] ships = new int[CELLS];
+    public int shipCount;
+
+    // Number of cells of the ships from an index to the end
+    public final int[] remainingCells = new int[CELLS + 1];
+
+    // Unblocked placements of each ship
+    public final int[][] candidates = new int[CELLS][];
+    public final int[] candidateCount = new int[CELLS];
+
+    /**
+     * Collect the alive ships and their unblocked placements
+     *
+     * @param aliveShips
+     * @param blockedLo  low 64 cells of the Miss and Sunk cells
+     * @param blockedHi  high 36 cells of the Miss and Sunk cells
+     */
+    public void collect(List<Integer> aliveShips, long blockedLo, long blockedHi) {
+        shipCount = 0;
+        for (int i = 0; i < aliveShips.size(); ++i) {
+            int length = aliveShips.get(i);
+            if (length < 1 || length > BitboardField.BOARD_SIZE) continue;
+
+            int j = shipCount++;
+            while (j > 0 && ships[j - 1] < length) {
+                ships[j] = ships[j - 1];
+                --j;
+            }
+            ships[j] = length;
+        }
+
+        remainingCells[shipCount] = 0;
+        for (int i = shipCount - 1; i >= 0; --i) {
+            int length = ships[i];
+            remainingCells[i] = remainingCells[i + 1] + length;
+
+            int count = BitboardField.placementCount(length);
+            if (candidates[i] == null || candidates[i].length < count) candidates[i] = new int[count];
+
+            candidateCount[i] = 0;
+            for (int p = 0; p < count; ++p)
+                if ((BitboardField.placementLo(length, p) & blockedLo) == 0 && (BitboardField.placementHi(length, p) & blockedHi) == 0)
+                    candidates[i][candidateCount[i]++] = p;
+        }
+    }
+
+    /**
+     * Upper bound on the number of configurations: the product of the placement counts
+     *
+     * @return
+     */
+    public double estimate() {
+        double estimate = 1;
+        for (int i = 0; i < shipCount; ++i) estimate *= candidateCount[i];
+        return estimate;
+    }
+
+    /**
+     * Count every ship on its own, the same density as BitboardField
+     *
+     * @param density destination, indexed by x * BOARD_SIZE + y
+     */
+    public void countIndependently(int[] density) {
+        for (int cell = 0; cell < CELLS; ++cell) density[cell] = 0;
+
+        for (int i = 0; i < shipCount; ++i) {
+            int length = ships[i];
+            for (int k = 0; k < candidateCount[i]; ++k) {
+                int p = candidates[i][k];
+                int step = BitboardField.placementStep(length, p);
+                for (int l = 0, cell = BitboardField.placementStart(length, p); l < length; ++l, cell += step)
+                    ++density[cell];
+            }
+        }
+    }
+}
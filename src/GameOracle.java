@@ -0,0 +1,37 @@
+/**
+ * The narrowest view of a battleship game the bot can play against: a fleet on a square board, and one answer per
+ * shot telling a miss, a hit, or a hit that sank a ship.
+ *
+ * Everything the bot needs to know about the game comes back with the shot, so an oracle can answer from anywhere,
+ * another process or a batch of games, with one round trip per shot. BattleshipGame is an oracle; fast engines
+ * implement fire directly, and the API adapter derives it from the number of ships sunk.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public interface GameOracle {
+    /**
+     * Shoot at a cell
+     *
+     * @param x
+     * @param y
+     * @return the outcome of the shot
+     */
+    ShotResult fire(int x, int y);
+
+    /**
+     * Returns the sizes of the ships in the game. The array does not change when a ship is sunk
+     *
+     * @return
+     */
+    int[] shipSizes();
+
+    /**
+     * Returns the size of the square board
+     *
+     * @return
+     */
+    default int boardSize() {
+        return VirtualField.DEFAULT_BOARD_SIZE;
+    }
+}
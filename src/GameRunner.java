@@ -0,0 +1,567 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.LongFunction;
+
+/**
+ * Plays a batch of games across a ForkJoin pool.
+ *
+ * Every game gets its own seed derived from the master seed and its game number, so the total number of shots
+ * does not depend on how the games are split between threads: a parallel run and a serial run give the same totals.
+ * Each task sums the shots of its own games and the sums are merged when the tasks are joined, so workers never
+ * contend on a shared counter. Per-game results go to an optional ResultStore, off the heap.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class GameRunner {
+    // Number of games a single task plays before it stops splitting
+    private static final int GAMES_PER_TASK = 64;
+
+    private final int numberOfGames;
+
+    // Number of the first game, so that a run can continue the games of another
+    private int firstGame;
+
+    private final long masterSeed;
+
+    private final int parallelism;
+
+    private final LongFunction<BattleshipGame> gameFactory;
+
+    private final ProbabilityMode probabilityMode;
+
+    // Opening book shared by every bot, null to compute every shot
+    private OpeningBook openingBook;
+
+    // Density maps shared by every bot, null for none
+    private TranspositionCache transpositionCache;
+
+    // Instrumentation shared by every bot, null for none
+    private BotMetrics metrics;
+
+    // Densest cells evaluated by the lookahead of every bot, 0 for none
+    private int lookaheadCandidates;
+
+    // Work allowed to the lookahead per shot
+    private long lookaheadBudgetNanos = Long.MAX_VALUE;
+
+    // Strategy constants of every bot
+    private StrategyParameters parameters = StrategyParameters.DEFAULT;
+
+    // Whether the bots sink ships by clusters of hits
+    private boolean clusterSinking;
+
+    // Placement weights of every bot, null to count placements uniformly
+    private PlacementPrior placementPrior;
+
+    // Whether the bots teach the prior the fleets of their games
+    private boolean learnPlacements;
+
+    // File receiving the trace of every game, null for none
+    private Path traceFile;
+
+    // Writer of the trace file while the games are played
+    private TraceWriter traceWriter;
+
+    // Receives the result of every game, null for none
+    private ResultStore resultStore;
+
+    // One reusable trace per worker thread
+    private final ThreadLocal<GameTrace> traces = ThreadLocal.withInitial(GameTrace::new);
+
+    // One reusable simulator per worker thread for the default game factory
+    private ThreadLocal<FastBattleShip> simulators = ThreadLocal.withInitial(FastBattleShip::new);
+
+    // Whether the games are played on the in-process simulator
+    private final boolean simulated;
+
+    // Board and fleet of the simulator
+    private int boardSize = FastBattleShip.BOARD_SIZE;
+    private int[] shipSizes = FastBattleShip.SHIP_SIZES.clone();
+
+    /**
+     * Constructor for a runner playing seeded games on the in-process simulator
+     *
+     * @param numberOfGames number of games to play
+     * @param masterSeed    seed every game seed is derived from
+     * @param parallelism   number of worker threads
+     */
+    public GameRunner(int numberOfGames, long masterSeed, int parallelism) {
+        this(numberOfGames, masterSeed, parallelism, null);
+    }
+
+    /**
+     * Constructor for a runner with a custom game factory
+     *
+     * @param numberOfGames number of games to play
+     * @param masterSeed    seed every game seed is derived from
+     * @param parallelism   number of worker threads
+     * @param gameFactory   creates a new game from a game seed, null for the in-process simulator
+     */
+    public GameRunner(int numberOfGames, long masterSeed, int parallelism, LongFunction<BattleshipGame> gameFactory) {
+        this(numberOfGames, masterSeed, parallelism, gameFactory, ProbabilityMode.Bitboard);
+    }
+
+    /**
+     * Constructor for a runner with a custom game factory and heat map engine
+     *
+     * @param numberOfGames   number of games to play
+     * @param masterSeed      seed every game seed is derived from
+     * @param parallelism     number of worker threads
+     * @param gameFactory     creates a new game from a game seed, null for the in-process simulator
+     * @param probabilityMode way the bots compute the heat map
+     */
+    public GameRunner(int numberOfGames, long masterSeed, int parallelism, LongFunction<BattleshipGame> gameFactory,
+                      ProbabilityMode probabilityMode) {
+        if (numberOfGames < 0) throw new IllegalArgumentException("Invalid number of games: " + numberOfGames);
+        if (parallelism < 1) throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+
+        this.numberOfGames = numberOfGames;
+        this.masterSeed = masterSeed;
+        this.parallelism = parallelism;
+        this.gameFactory = gameFactory != null ? gameFactory : this::reusedSimulator;
+        this.simulated = gameFactory == null;
+        this.probabilityMode = probabilityMode;
+    }
+
+    /**
+     * Reset the simulator of the current thread for a new game. A thread plays one game at a time, so the previous
+     * game is always finished
+     *
+     * @param seed
+     * @return
+     */
+    private BattleshipGame reusedSimulator(long seed) {
+        FastBattleShip simulator = simulators.get();
+        simulator.reset(seed);
+        return simulator;
+    }
+
+    /**
+     * Play on a board of another size or with another fleet. Only applies to the in-process simulator
+     *
+     * @param boardSize size of the square board
+     * @param shipSizes lengths of the ships
+     */
+    public void setBoard(int boardSize, int[] shipSizes) {
+        // Fails early on a fleet that does not fit or a probability mode that does not support the board
+        new FastBattleShip(boardSize, shipSizes, 0);
+        VirtualField.createDensityEngine(probabilityMode, boardSize);
+
+        int[] fleet = shipSizes.clone();
+        simulators = ThreadLocal.withInitial(() -> new FastBattleShip(boardSize, fleet, 0));
+        this.boardSize = boardSize;
+        this.shipSizes = fleet;
+    }
+
+    /**
+     * Share an opening book between all the bots of the run
+     *
+     * @param openingBook book built with the same probability mode as the runner, null for none
+     */
+    public void setOpeningBook(OpeningBook openingBook) {
+        if (openingBook != null && openingBook.getProbabilityMode() != probabilityMode)
+            throw new IllegalArgumentException("Opening book built for " + openingBook.getProbabilityMode() + ", not " + probabilityMode);
+        if (openingBook != null && lookaheadCandidates > 0)
+            throw new IllegalArgumentException("An opening book holds the shots of the densest cell, it cannot be combined with a lookahead");
+        if (openingBook != null && placementPrior != null)
+            throw new IllegalArgumentException("A placement prior cannot be combined with an opening book or a transposition cache");
+
+        this.openingBook = openingBook;
+    }
+
+    /**
+     * Share a transposition cache between all the bots of the run
+     *
+     * @param transpositionCache cache of the same probability mode as the runner, null for none
+     */
+    public void setTranspositionCache(TranspositionCache transpositionCache) {
+        if (transpositionCache != null && transpositionCache.getProbabilityMode() != probabilityMode)
+            throw new IllegalArgumentException("Transposition cache built for " + transpositionCache.getProbabilityMode() + ", not " + probabilityMode);
+        if (transpositionCache != null && placementPrior != null)
+            throw new IllegalArgumentException("A placement prior cannot be combined with an opening book or a transposition cache");
+
+        this.transpositionCache = transpositionCache;
+    }
+
+    /**
+     * Record the per-shot metrics of every bot of the run
+     *
+     * @param metrics null for none
+     */
+    public void setMetrics(BotMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Choose the hunting shots of every bot with a one-ply lookahead
+     *
+     * @param candidates  densest cells evaluated per shot, 0 for no lookahead
+     * @param budgetNanos work allowed per shot
+     */
+    public void setLookahead(int candidates, long budgetNanos) {
+        if (candidates < 0) throw new IllegalArgumentException("Invalid number of candidates: " + candidates);
+        if (budgetNanos <= 0) throw new IllegalArgumentException("Invalid time budget: " + budgetNanos);
+        if (candidates > 0 && openingBook != null)
+            throw new IllegalArgumentException("An opening book holds the shots of the densest cell, it cannot be combined with a lookahead");
+
+        this.lookaheadCandidates = candidates;
+        this.lookaheadBudgetNanos = budgetNanos;
+    }
+
+    /**
+     * Play games firstGame to firstGame + numberOfGames - 1 instead of starting from game 0
+     *
+     * @param firstGame
+     */
+    public void setFirstGame(int firstGame) {
+        if (firstGame < 0) throw new IllegalArgumentException("Invalid first game: " + firstGame);
+
+        this.firstGame = firstGame;
+    }
+
+    /**
+     * Play every bot with other strategy constants than StrategyParameters.DEFAULT
+     *
+     * @param parameters
+     */
+    public void setParameters(StrategyParameters parameters) {
+        this.parameters = parameters;
+    }
+
+    /**
+     * Sink ships with a ClusterSinkSolver instead of the sink stack of the field
+     *
+     * @param clusterSinking
+     */
+    public void setClusterSinking(boolean clusterSinking) {
+        this.clusterSinking = clusterSinking;
+    }
+
+    /**
+     * Weigh the placements of every bot by a prior, counted by a WeightedField in place of the Bitboard engine, and
+     * optionally teach it the fleet of every finished game. Games that tell their placements, such as FastBattleShip,
+     * teach it where their ships really were; other games only the placements the bot worked out. The prior is
+     * reloaded between batches of games when its file changes. Opening books and transposition caches hold
+     * unweighted densities, so they cannot be combined with it
+     *
+     * @param placementPrior prior for the board size of the run, null for none
+     * @param learn          whether the games update the prior
+     */
+    public void setPlacementPrior(PlacementPrior placementPrior, boolean learn) {
+        if (placementPrior != null && (openingBook != null || transpositionCache != null))
+            throw new IllegalArgumentException("A placement prior cannot be combined with an opening book or a transposition cache");
+        if (placementPrior != null && probabilityMode != ProbabilityMode.Bitboard)
+            throw new IllegalArgumentException("A placement prior replaces the density engine, it cannot be combined with " + probabilityMode);
+
+        this.placementPrior = placementPrior;
+        this.learnPlacements = placementPrior != null && learn;
+    }
+
+    /**
+     * Record the shots of every game of the run in a trace file, whose header holds the probability mode, board,
+     * fleet, strategy constants, lookahead and sinking of the runner so that TraceReplay can build the same bots.
+     * run() creates the file and closes it once the games are played
+     *
+     * @param traceFile null for none
+     */
+    public void setTraceFile(Path traceFile) {
+        this.traceFile = traceFile;
+    }
+
+    /**
+     * Refuse the settings under which a bot does not take the same shots when its game is replayed on its own: an
+     * opening book and a placement prior are not in the trace, a lookahead budget is wall-clock time, and a
+     * transposition cache hands a MonteCarlo bot densities sampled in other games
+     */
+    private void checkReplayable() {
+        if (!simulated) throw new IllegalArgumentException("Only games of the in-process simulator can be traced");
+        if (openingBook != null) throw new IllegalArgumentException("Games played from an opening book cannot be traced");
+        if (placementPrior != null) throw new IllegalArgumentException("Games weighed by a placement prior cannot be traced");
+        if (lookaheadCandidates > 0 && lookaheadBudgetNanos != Long.MAX_VALUE)
+            throw new IllegalArgumentException("Games of a timed lookahead cannot be traced");
+        if (transpositionCache != null && probabilityMode == ProbabilityMode.MonteCarlo)
+            throw new IllegalArgumentException("MonteCarlo games sharing a transposition cache cannot be traced");
+    }
+
+    /**
+     * Record the game number, seed, trace position and shots of every game in a result store, and skip the games
+     * that the store already held when it was opened, so that a campaign stopped halfway carries on where it was.
+     * The trace positions of a record refer to the trace file of the run that recorded it
+     *
+     * @param resultStore store of the same master seed and configuration as the runner, null for none
+     */
+    public void setResultStore(ResultStore resultStore) {
+        if (resultStore != null) checkResultStore(resultStore);
+
+        this.resultStore = resultStore;
+    }
+
+    /**
+     * Open or create the result store of a campaign with the master seed and configuration of the runner, and record
+     * the games of the run in it. Call it once the runner is configured; the caller closes the store
+     *
+     * @param file
+     * @return the store
+     * @throws IOException
+     */
+    public ResultStore openResultStore(Path file) throws IOException {
+        resultStore = new ResultStore(file, masterSeed, configuration());
+        return resultStore;
+    }
+
+    /**
+     * Refuse a result store of another campaign, whose games would be skipped and summarized with the games of this one
+     *
+     * @param resultStore
+     */
+    private void checkResultStore(ResultStore resultStore) {
+        if (resultStore.getMasterSeed() != masterSeed)
+            throw new IllegalArgumentException("Result store of master seed " + resultStore.getMasterSeed() + ", not " + masterSeed);
+        if (!Arrays.equals(resultStore.getConfiguration(), configuration()))
+            throw new IllegalArgumentException("Result store of bots with another probability mode, board, fleet, strategy constants, lookahead or sinking");
+    }
+
+    /**
+     * Returns the configuration of the bots as recorded by trace files and result stores
+     *
+     * @return
+     */
+    private byte[] configuration() {
+        return TraceWriter.configuration(probabilityMode, boardSize, shipSizes, parameters, lookaheadCandidates, clusterSinking);
+    }
+
+    /**
+     * Derive the seed of a game from the master seed (SplitMix64 finalizer)
+     *
+     * @param masterSeed
+     * @param game
+     * @return
+     */
+    public static long gameSeed(long masterSeed, long game) {
+        long z = masterSeed + (game + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Play a single game to the end
+     *
+     * @param seed
+     * @return the number of shots taken
+     */
+    public int playGame(long seed) {
+        BattleshipGame battleShip = gameFactory.apply(seed);
+        DrInvisible_Bot bot = createBot(battleShip, seed);
+
+        GameTrace trace = traceWriter != null ? traces.get() : null;
+        boolean tellsFleet = battleShip.shipSizes().length == 0 || battleShip.getPlacement(0) >= 0;
+        if (learnPlacements && !tellsFleet) bot.setPlacementPrior(placementPrior);
+
+        if (trace != null) {
+            trace.begin(seed);
+            bot.setTrace(trace);
+        }
+
+        while (!battleShip.allSunk()) {
+            bot.fireShot();
+        }
+
+        if (learnPlacements && tellsFleet) observeFleet(battleShip);
+
+        if (trace != null) {
+            try {
+                traceWriter.write(trace);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        return battleShip.totalShotsTaken();
+    }
+
+    /**
+     * Create the bot of a game with the settings of the runner
+     *
+     * @param battleShip
+     * @param seed       seed of the game
+     * @return
+     */
+    DrInvisible_Bot createBot(BattleshipGame battleShip, long seed) {
+        DrInvisible_Bot bot = new DrInvisible_Bot(battleShip, createDensityEngine(battleShip.boardSize(), seed));
+        bot.setOpeningBook(openingBook);
+        bot.setTranspositionCache(transpositionCache);
+        bot.setMetrics(metrics);
+        if (parameters != StrategyParameters.DEFAULT) bot.setParameters(parameters);
+        if (lookaheadCandidates > 0)
+            bot.setLookahead(new ShotLookahead(battleShip.boardSize(), lookaheadCandidates, lookaheadBudgetNanos));
+        if (clusterSinking) bot.setSinkSolver(new ClusterSinkSolver(battleShip.boardSize()));
+
+        return bot;
+    }
+
+    /**
+     * Create the density engine of a game. MonteCarlo draws a fixed number of samples per shot, from generators
+     * seeded by the game, instead of sampling until its time budget runs out, so its games are reproducible too
+     *
+     * @param boardSize
+     * @param seed      seed of the game
+     * @return the engine, null in ProbabilityMode.Scan
+     */
+    private DensityEngine createDensityEngine(int boardSize, long seed) {
+        if (placementPrior != null) return new WeightedField(placementPrior);
+        if (probabilityMode == ProbabilityMode.MonteCarlo && boardSize == MonteCarloField.BOARD_SIZE)
+            return new MonteCarloField(MonteCarloField.DEFAULT_SAMPLES, Long.MAX_VALUE, 1, seed);
+
+        return VirtualField.createDensityEngine(probabilityMode, boardSize);
+    }
+
+    /**
+     * Play all the games and wait for the result
+     *
+     * @return
+     */
+    public Result run() {
+        if (resultStore != null) checkResultStore(resultStore);
+        if (traceFile == null) return play();
+
+        checkReplayable();
+        try (TraceWriter writer = new TraceWriter(traceFile, probabilityMode, boardSize, shipSizes, parameters,
+                lookaheadCandidates, clusterSinking)) {
+            traceWriter = writer;
+            return play();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            traceWriter = null;
+        }
+    }
+
+    /**
+     * Play all the games on the pool
+     *
+     * @return
+     */
+    private Result play() {
+        long start = System.nanoTime();
+        long totalShots;
+        int games = numberOfGames - (resultStore != null ? resultStore.countRecorded(firstGame, firstGame + numberOfGames) : 0);
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            totalShots = pool.invoke(new GamesTask(firstGame, firstGame + numberOfGames));
+        } finally {
+            pool.shutdown();
+        }
+
+        return new Result(games, totalShots, System.nanoTime() - start);
+    }
+
+    /**
+     * Teach the prior where the ships of a finished game were
+     *
+     * @param battleShip
+     */
+    private void observeFleet(BattleshipGame battleShip) {
+        int[] shipSizes = battleShip.shipSizes();
+        int[] placements = new int[shipSizes.length];
+        for (int ship = 0; ship < shipSizes.length; ++ship)
+            placements[ship] = placementPrior.index(shipSizes[ship], battleShip.getPlacement(ship));
+
+        placementPrior.observeGame(placements, placements.length);
+    }
+
+    private void reloadPlacementPrior() {
+        try {
+            placementPrior.reloadIfModified();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Play the games of a range that the result store did not hold, recording them in slots reserved at once
+     *
+     * @param from
+     * @param to
+     * @return the shots of the games played
+     */
+    private long playRecorded(int from, int to) {
+        int count = to - from - resultStore.countRecorded(from, to);
+        long slot = count > 0 ? resultStore.reserve(count) : 0;
+        long shots = 0;
+
+        for (int game = from; game < to; ++game) {
+            if (resultStore.isRecorded(game)) continue;
+
+            long seed = gameSeed(masterSeed, game);
+            int gameShots = playGame(seed);
+            long tracePosition = traceWriter != null ? traces.get().getPosition() : -1;
+            resultStore.record(slot++, game, seed, tracePosition, gameShots);
+            shots += gameShots;
+        }
+
+        return shots;
+    }
+
+    /**
+     * Task playing a range of games, splitting in half until the range is small enough
+     */
+    private final class GamesTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        GamesTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from <= GAMES_PER_TASK) {
+                if (placementPrior != null) reloadPlacementPrior();
+                if (resultStore != null) return playRecorded(from, to);
+
+                long shots = 0;
+                for (int game = from; game < to; ++game) shots += playGame(gameSeed(masterSeed, game));
+                return shots;
+            }
+
+            int middle = (from + to) >>> 1;
+            GamesTask left = new GamesTask(from, middle);
+            left.fork();
+            long right = new GamesTask(middle, to).compute();
+            return left.join() + right;
+        }
+    }
+
+    /**
+     * Totals of a run
+     */
+    public static final class Result {
+        public final int games;
+        public final long totalShots;
+        public final long elapsedNanos;
+
+        Result(int games, long totalShots, long elapsedNanos) {
+            this.games = games;
+            this.totalShots = totalShots;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public double averageShots() {
+            return games == 0 ? 0 : (double) totalShots / games;
+        }
+
+        public double gamesPerSecond() {
+            return elapsedNanos == 0 ? 0 : games * 1e9 / elapsedNanos;
+        }
+    }
+}
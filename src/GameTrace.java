@@ -0,0 +1,106 @@
+import java.util.Arrays;
+
+/**
+ * The shots of one game, varint-encoded as the game is played.
+ *
+ * A bot with a trace appends one varint per shot: (cell << 4) | (ShotSource ordinal << 2) | (sunk << 1) | hit, the
+ * cell being x * boardSize + y. When the game is over the trace is handed to a TraceWriter, which copies it into the
+ * current block; the trace is then reused for the next game, so recording does not allocate once the buffer has
+ * grown to the longest game.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class GameTrace {
+    private byte[] bytes = new byte[256];
+    private int length;
+    private int shots;
+    private long seed;
+
+    // Position of the game in the trace file it was written to, -1 until written
+    private long position = -1;
+
+    /**
+     * Start recording a new game
+     *
+     * @param seed seed of the game, 0 if unknown
+     */
+    public void begin(long seed) {
+        this.seed = seed;
+        this.length = 0;
+        this.shots = 0;
+        this.position = -1;
+    }
+
+    /**
+     * Record a shot
+     *
+     * @param cell   x * boardSize + y
+     * @param hit
+     * @param sunk   the shot sank a ship
+     * @param source
+     */
+    public void recordShot(int cell, boolean hit, boolean sunk, ShotSource source) {
+        putVarint(encodeShot(cell, hit, sunk, source));
+        ++shots;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getShots() {
+        return shots;
+    }
+
+    /**
+     * Returns where the game went in the trace file, see TraceWriter.write
+     *
+     * @return the position, or -1 if the game has not been written
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    void setPosition(long position) {
+        this.position = position;
+    }
+
+    /**
+     * Returns the encoded shots, valid up to getLength()
+     *
+     * @return
+     */
+    byte[] getBytes() {
+        return bytes;
+    }
+
+    int getLength() {
+        return length;
+    }
+
+    static long encodeShot(int cell, boolean hit, boolean sunk, ShotSource source) {
+        return (long) cell << 4 | source.ordinal() << 2 | (sunk ? 2 : 0) | (hit ? 1 : 0);
+    }
+
+    static int shotCell(long shot) {
+        return (int) (shot >>> 4);
+    }
+
+    static ShotSource shotSource(long shot) {
+        return ShotSource.values()[(int) (shot >>> 2 & 3)];
+    }
+
+    static boolean shotSunk(long shot) {
+        return (shot & 2) != 0;
+    }
+
+    static boolean shotHit(long shot) {
+        return (shot & 1) != 0;
+    }
+
+    private void putVarint(long value) {
+        if (length + 10 > bytes.length) bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        length = TraceWriter.putVarint(bytes, length, value);
+    }
+}
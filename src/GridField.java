@@ -0,0 +1,228 @@
+import java.util.List;
+
+/**
+ * Density engine for square boards of any size, counting the same placements as BitboardField.
+ *
+ * BitboardField packs the board into two longs, which only works up to 128 cells. This engine keeps one flag per
+ * cell instead, and the same incremental bookkeeping: for every alive length, the legality of each placement and the
+ * number of legal placements covering each cell. Blocking a cell only subtracts the placements running through it,
+ * at most 2 * length per length, so a shot costs the same on a 50 x 50 board as on a 10 x 10 one. Only the lengths
+ * whose number of alive ships changed are touched by updateDensity.
+ *
+ * Placements of a length are numbered like BitboardField: along y first (x * perLine + y), then along x. Their
+ * cells and the placements through each cell come from the shared PlacementIndex of the board size.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class GridField implements DensityEngine {
+    private final int boardSize;
+    private final int cells;
+
+    // Placements of the board size, shared with every other engine on it
+    private final PlacementIndex index;
+
+    // Hit and Sunk cells
+    private final boolean[] hit;
+
+    // Miss and Sunk cells
+    private final boolean[] blocked;
+
+    // Legality of every placement of the lengths that are currently tracked
+    private final boolean[][] legal;
+
+    // Number of legal placements of each tracked length covering each cell
+    private final int[][] cover;
+
+    // Number of legal placements of each tracked length
+    private final int[] placements;
+
+    // Number of alive ships of each length
+    private final int[] multiplicity;
+
+    // Density of each cell, the sum over alive ships of cover
+    private final int[] density;
+
+    // Scratch buffer for syncing the alive ships
+    private final int[] aliveCount;
+
+    /**
+     * Constructor for an empty board with no alive ships
+     *
+     * @param boardSize
+     */
+    public GridField(int boardSize) {
+        if (boardSize < 1) throw new IllegalArgumentException("Invalid board size: " + boardSize);
+
+        this.boardSize = boardSize;
+        this.cells = boardSize * boardSize;
+        this.index = PlacementIndex.of(boardSize);
+        this.hit = new boolean[cells];
+        this.blocked = new boolean[cells];
+        this.legal = new boolean[boardSize + 1][];
+        this.cover = new int[boardSize + 1][];
+        this.placements = new int[boardSize + 1];
+        this.multiplicity = new int[boardSize + 1];
+        this.density = new int[cells];
+        this.aliveCount = new int[boardSize + 1];
+    }
+
+    @Override
+    public void setCellState(int x, int y, CellState state) {
+        int cell = x * boardSize + y;
+        boolean wasBlocked = blocked[cell];
+        hit[cell] = state == CellState.Hit || state == CellState.Sunk;
+        blocked[cell] = state == CellState.Miss || state == CellState.Sunk;
+
+        if (blocked[cell] && !wasBlocked) {
+            blockCell(cell);
+        } else if (!blocked[cell] && wasBlocked) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Get the state of a cell
+     *
+     * @param x
+     * @param y
+     * @return
+     */
+    public CellState getCellState(int x, int y) {
+        int cell = x * boardSize + y;
+
+        if (hit[cell]) return blocked[cell] ? CellState.Sunk : CellState.Hit;
+        return blocked[cell] ? CellState.Miss : CellState.Empty;
+    }
+
+    @Override
+    public void updateDensity(List<Integer> aliveShips) {
+        for (int length = 1; length <= boardSize; ++length) aliveCount[length] = 0;
+
+        // Lengths that cannot fit on the board never contribute to the density
+        for (int i = 0; i < aliveShips.size(); ++i) {
+            int length = aliveShips.get(i);
+            if (length >= 1 && length <= boardSize) ++aliveCount[length];
+        }
+
+        for (int length = 1; length <= boardSize; ++length) {
+            int delta = aliveCount[length] - multiplicity[length];
+            if (delta == 0) continue;
+
+            if (legal[length] == null) track(length);
+
+            int[] lengthCover = cover[length];
+            for (int cell = 0; cell < cells; ++cell) density[cell] += delta * lengthCover[cell];
+
+            multiplicity[length] = aliveCount[length];
+            if (multiplicity[length] == 0) {
+                legal[length] = null;
+                cover[length] = null;
+            }
+        }
+    }
+
+    @Override
+    public int getDensity(int x, int y) {
+        return density[x * boardSize + y];
+    }
+
+    @Override
+    public void copyDensity(int[] destination) {
+        System.arraycopy(density, 0, destination, 0, cells);
+    }
+
+    @Override
+    public int getCoverage(int length, int cell) {
+        return length >= 1 && length <= boardSize && cover[length] != null ? cover[length][cell] : -1;
+    }
+
+    @Override
+    public int getPlacementCount(int length) {
+        return length >= 1 && length <= boardSize && legal[length] != null ? placements[length] : -1;
+    }
+
+    /**
+     * Check whether the placement starting at a cell is legal
+     *
+     * @param length
+     * @param start
+     * @param step   1 along y, boardSize along x
+     * @return
+     */
+    private boolean canPlace(int length, int start, int step) {
+        for (int l = 0, cell = start; l < length; ++l, cell += step)
+            if (blocked[cell]) return false;
+
+        return true;
+    }
+
+    /**
+     * Start tracking the legal placements of a length from scratch
+     *
+     * @param length
+     */
+    private void track(int length) {
+        PlacementIndex.Placements all = index.get(length);
+        boolean[] lengthLegal = new boolean[all.count()];
+        int[] lengthCover = new int[cells];
+        int lengthPlacements = 0;
+
+        for (int p = 0; p < lengthLegal.length; ++p) {
+            int start = all.start[p];
+            int step = all.step[p];
+            if (!canPlace(length, start, step)) continue;
+
+            lengthLegal[p] = true;
+            ++lengthPlacements;
+            for (int l = 0, cell = start; l < length; ++l, cell += step) ++lengthCover[cell];
+        }
+
+        legal[length] = lengthLegal;
+        placements[length] = lengthPlacements;
+        cover[length] = lengthCover;
+    }
+
+    /**
+     * Subtract every legal placement running through a newly blocked cell
+     *
+     * @param cell
+     */
+    private void blockCell(int cell) {
+        for (int length = 1; length <= boardSize; ++length) {
+            if (legal[length] == null) continue;
+
+            PlacementIndex.Placements all = index.get(length);
+            for (int i = all.firstThrough[cell]; i < all.firstThrough[cell + 1]; ++i) invalidate(all, all.through[i]);
+        }
+    }
+
+    private void invalidate(PlacementIndex.Placements all, int placement) {
+        int length = all.length;
+        if (!legal[length][placement]) return;
+
+        legal[length][placement] = false;
+        --placements[length];
+        int[] lengthCover = cover[length];
+        int weight = multiplicity[length];
+        int step = all.step[placement];
+        for (int l = 0, cell = all.start[placement]; l < length; ++l, cell += step) {
+            --lengthCover[cell];
+            density[cell] -= weight;
+        }
+    }
+
+    /**
+     * Recompute every tracked length, used only when a cell is unblocked
+     */
+    private void rebuild() {
+        for (int cell = 0; cell < cells; ++cell) density[cell] = 0;
+
+        for (int length = 1; length <= boardSize; ++length) {
+            if (legal[length] == null) continue;
+
+            track(length);
+            for (int cell = 0; cell < cells; ++cell) density[cell] += multiplicity[length] * cover[length][cell];
+        }
+    }
+}
@@ -0,0 +1,70 @@
+import battleship.BattleShip;
+
+import java.awt.Point;
+
+/**
+ * Adapter exposing the BattleShip class of the API as a BattleshipGame.
+ *
+ * The API only tells hit or miss, so fire learns about sunk ships from numberOfShipsSunk, asked once per hit against
+ * the count seen after the previous hit.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class JarBattleShip implements BattleshipGame {
+    private final BattleShip battleShip;
+
+    // Ships sunk as of the last hit
+    private int shipsSunk;
+
+    /**
+     * Constructor for a new game of the API
+     */
+    public JarBattleShip() {
+        this(new BattleShip());
+    }
+
+    /**
+     * Constructor wrapping a previously created game
+     *
+     * @param battleShip
+     */
+    public JarBattleShip(BattleShip battleShip) {
+        this.battleShip = battleShip;
+        this.shipsSunk = battleShip.numberOfShipsSunk();
+    }
+
+    @Override
+    public boolean shoot(int x, int y) {
+        boolean hit = battleShip.shoot(new Point(x, y));
+        if (hit) shipsSunk = battleShip.numberOfShipsSunk();
+        return hit;
+    }
+
+    @Override
+    public ShotResult fire(int x, int y) {
+        int shipsSunkBefore = shipsSunk;
+        if (!shoot(x, y)) return ShotResult.Miss;
+        return shipsSunk > shipsSunkBefore ? ShotResult.Sunk : ShotResult.Hit;
+    }
+
+    @Override
+    public int numberOfShipsSunk() {
+        return battleShip.numberOfShipsSunk();
+    }
+
+    @Override
+    public boolean allSunk() {
+        return battleShip.allSunk();
+    }
+
+    @Override
+    public int totalShotsTaken() {
+        return battleShip.totalShotsTaken();
+    }
+
+    @Override
+    public int[] shipSizes() {
+        return battleShip.shipSizes();
+    }
+}
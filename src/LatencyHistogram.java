@@ -0,0 +1,125 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of nanosecond latencies with a fixed relative precision, laid out like HdrHistogram.
+ *
+ * Values are grouped by their highest set bit, and each group is split into SUB_BUCKETS linear sub-buckets, so a
+ * recorded value is off by less than 1 / SUB_BUCKETS (under 1%) whatever its magnitude. Counts live in one flat
+ * atomic array, so recording is a couple of shifts and one atomic increment, never an allocation, and several
+ * threads can record into the same histogram.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class LatencyHistogram {
+    // Linear sub-buckets per power of two, which sets the precision
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // Largest value tracked exactly is 2^MAX_BITS - 1 ns (about 18 minutes), larger values are clamped
+    private static final int MAX_BITS = 40;
+
+    private static final int BUCKETS = (MAX_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Record one value
+     *
+     * @param nanos latency, negative values count as 0
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(indexOf(Math.max(0, Math.min(nanos, (1L << MAX_BITS) - 1))));
+    }
+
+    /**
+     * Returns the number of recorded values
+     *
+     * @return
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; ++i) count += counts.get(i);
+        return count;
+    }
+
+    /**
+     * Returns the mean of the recorded values, 0 if there are none
+     *
+     * @return
+     */
+    public double getMean() {
+        long count = 0;
+        double total = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            long n = counts.get(i);
+            count += n;
+            total += (double) n * midpointOf(i);
+        }
+
+        return count == 0 ? 0 : total / count;
+    }
+
+    /**
+     * Returns the largest recorded value, 0 if there are none
+     *
+     * @return
+     */
+    public long getMax() {
+        for (int i = BUCKETS - 1; i >= 0; --i)
+            if (counts.get(i) > 0) return highestOf(i);
+
+        return 0;
+    }
+
+    /**
+     * Returns the value below which the given percentage of the recorded values fall
+     *
+     * @param percentile between 0 and 100
+     * @return
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0) return 0;
+
+        long target = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += counts.get(i);
+            if (seen >= target) return highestOf(i);
+        }
+
+        return getMax();
+    }
+
+    /**
+     * Forget every recorded value
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; ++i) counts.set(i, 0);
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+
+        // Shift so that the value keeps SUB_BUCKET_BITS + 1 significant bits, the top one always set
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long lowestOf(int index) {
+        int group = index / SUB_BUCKETS;
+        if (group == 0) return index;
+
+        return (long) (index % SUB_BUCKETS + SUB_BUCKETS) << (group - 1);
+    }
+
+    private static long highestOf(int index) {
+        int group = index / SUB_BUCKETS;
+        return group == 0 ? index : lowestOf(index) + (1L << (group - 1)) - 1;
+    }
+
+    private static double midpointOf(int index) {
+        return (lowestOf(index) + highestOf(index)) / 2.0;
+    }
+}
@@ -0,0 +1,232 @@
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Density engine estimating the heat map from random fleet configurations.
+ *
+ * Each sample lets every alive ship pick uniformly among its unblocked placements and is rejected if two ships
+ * overlap or a Hit cell is left uncovered, so accepted samples are uniform over the configurations that fit the
+ * board. The density of a cell is the share of accepted samples with a ship on it.
+ *
+ * The work per shot is bounded by a number of samples and by a time budget, whichever runs out first, so callers
+ * can trade accuracy for latency. Sampling can be split across threads; every worker has its own random generator
+ * and its own counters, which are merged once the workers are done. Runs are reproducible as long as the time
+ * budget is not the limit.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class MonteCarloField implements DensityEngine {
+    // The size of the board
+    public static final int BOARD_SIZE = BitboardField.BOARD_SIZE;
+
+    // The number of cells on the board
+    public static final int CELLS = BitboardField.CELLS;
+
+    // Density of a cell covered in every sample
+    public static final int DENSITY_SCALE = 1 << 20;
+
+    // Budget of ProbabilityMode.MonteCarlo. GameRunner only keeps the samples, so that its games are reproducible
+    public static final int DEFAULT_SAMPLES = 20000;
+    public static final long DEFAULT_BUDGET_NANOS = 500_000;
+
+    // Below this many accepted samples the engine falls back to counting each ship on its own
+    private static final int MIN_ACCEPTED_SAMPLES = 200;
+
+    // Samples drawn between two looks at the clock
+    private static final int SAMPLES_PER_CLOCK_CHECK = 64;
+
+    private static final long DEFAULT_SEED = 0x5DEECE66DL;
+
+    private final int maxSamples;
+
+    private final long budgetNanos;
+
+    private final Worker[] workers;
+
+    private final FleetCandidates fleet = new FleetCandidates();
+
+    // Hit plane: Hit cells, which must be covered by an alive ship
+    private long hitLo, hitHi;
+
+    // Blocked plane: Miss and Sunk cells
+    private long blockedLo, blockedHi;
+
+    private final int[] density = new int[CELLS];
+
+    /**
+     * Constructor with the budget of ProbabilityMode.MonteCarlo, on the calling thread
+     */
+    public MonteCarloField() {
+        this(DEFAULT_SAMPLES, DEFAULT_BUDGET_NANOS, 1);
+    }
+
+    /**
+     * Constructor with a budget per shot
+     *
+     * @param maxSamples  most samples drawn per shot
+     * @param budgetNanos most time spent sampling per shot, Long.MAX_VALUE for no limit
+     * @param threads     number of threads sampling, the calling thread included
+     */
+    public MonteCarloField(int maxSamples, long budgetNanos, int threads) {
+        this(maxSamples, budgetNanos, threads, DEFAULT_SEED);
+    }
+
+    /**
+     * Constructor with a budget per shot and a seed for the random generators
+     *
+     * @param maxSamples  most samples drawn per shot
+     * @param budgetNanos most time spent sampling per shot, Long.MAX_VALUE for no limit
+     * @param threads     number of threads sampling, the calling thread included
+     * @param seed
+     */
+    public MonteCarloField(int maxSamples, long budgetNanos, int threads, long seed) {
+        if (maxSamples < 1) throw new IllegalArgumentException("Invalid number of samples: " + maxSamples);
+        if (budgetNanos < 1) throw new IllegalArgumentException("Invalid budget: " + budgetNanos);
+        if (threads < 1) throw new IllegalArgumentException("Invalid number of threads: " + threads);
+
+        this.maxSamples = maxSamples;
+        this.budgetNanos = budgetNanos;
+        this.workers = new Worker[threads];
+        for (int i = 0; i < threads; ++i) workers[i] = new Worker(GameRunner.gameSeed(seed, i));
+    }
+
+    @Override
+    public void setCellState(int x, int y, CellState state) {
+        int cell = x * BOARD_SIZE + y;
+        boolean hit = state == CellState.Hit;
+        boolean blocked = state == CellState.Miss || state == CellState.Sunk;
+
+        if (cell < 64) {
+            long bit = 1L << cell;
+            hitLo = hit ? hitLo | bit : hitLo & ~bit;
+            blockedLo = blocked ? blockedLo | bit : blockedLo & ~bit;
+        } else {
+            long bit = 1L << (cell - 64);
+            hitHi = hit ? hitHi | bit : hitHi & ~bit;
+            blockedHi = blocked ? blockedHi | bit : blockedHi & ~bit;
+        }
+    }
+
+    @Override
+    public void updateDensity(List<Integer> aliveShips) {
+        fleet.collect(aliveShips, blockedLo, blockedHi);
+
+        long deadline = budgetNanos == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + budgetNanos;
+        int share = (maxSamples + workers.length - 1) / workers.length;
+
+        if (workers.length == 1) {
+            workers[0].sample(share, deadline);
+        } else {
+            ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[workers.length - 1];
+            for (int i = 1; i < workers.length; ++i) {
+                Worker worker = workers[i];
+                tasks[i - 1] = ForkJoinPool.commonPool().submit(() -> worker.sample(share, deadline));
+            }
+
+            workers[0].sample(share, deadline);
+            for (ForkJoinTask<?> task : tasks) task.join();
+        }
+
+        int accepted = 0;
+        for (Worker worker : workers) accepted += worker.accepted;
+
+        if (accepted < MIN_ACCEPTED_SAMPLES) {
+            fleet.countIndependently(density);
+            return;
+        }
+
+        for (int cell = 0; cell < CELLS; ++cell) {
+            long covered = 0;
+            for (Worker worker : workers) covered += worker.coverage[cell];
+            density[cell] = (int) (covered * DENSITY_SCALE / accepted);
+        }
+    }
+
+    @Override
+    public int getDensity(int x, int y) {
+        return density[x * BOARD_SIZE + y];
+    }
+
+    @Override
+    public void copyDensity(int[] destination) {
+        System.arraycopy(density, 0, destination, 0, CELLS);
+    }
+
+    /**
+     * Sampling state of one thread: its random generator and its counters
+     */
+    private final class Worker {
+        private long randomState;
+
+        // Number of accepted samples with a ship on each cell
+        private final int[] coverage = new int[CELLS];
+
+        private int accepted;
+
+        // Placements chosen for the sample being drawn
+        private final int[] chosen = new int[CELLS];
+
+        Worker(long seed) {
+            this.randomState = seed;
+        }
+
+        /**
+         * Draw samples until the count or the deadline is reached
+         *
+         * @param samples
+         * @param deadline System.nanoTime() past which sampling stops
+         */
+        void sample(int samples, long deadline) {
+            for (int cell = 0; cell < CELLS; ++cell) coverage[cell] = 0;
+            accepted = 0;
+
+            for (int i = 0; i < fleet.shipCount; ++i)
+                if (fleet.candidateCount[i] == 0) return;
+
+            for (int s = 0; s < samples; ++s) {
+                if (s % SAMPLES_PER_CLOCK_CHECK == 0 && deadline != Long.MAX_VALUE && System.nanoTime() > deadline) return;
+
+                long occupiedLo = 0, occupiedHi = 0;
+                boolean overlap = false;
+
+                for (int i = 0; i < fleet.shipCount && !overlap; ++i) {
+                    int length = fleet.ships[i];
+                    int p = fleet.candidates[i][nextInt(fleet.candidateCount[i])];
+                    long placementLo = BitboardField.placementLo(length, p);
+                    long placementHi = BitboardField.placementHi(length, p);
+
+                    overlap = (placementLo & occupiedLo) != 0 || (placementHi & occupiedHi) != 0;
+                    occupiedLo |= placementLo;
+                    occupiedHi |= placementHi;
+                    chosen[i] = p;
+                }
+
+                if (overlap || (hitLo & ~occupiedLo) != 0 || (hitHi & ~occupiedHi) != 0) continue;
+
+                ++accepted;
+                for (int i = 0; i < fleet.shipCount; ++i) {
+                    int length = fleet.ships[i];
+                    int step = BitboardField.placementStep(length, chosen[i]);
+                    for (int l = 0, cell = BitboardField.placementStart(length, chosen[i]); l < length; ++l, cell += step)
+                        ++coverage[cell];
+                }
+            }
+        }
+
+        /**
+         * Next random number from a SplitMix64 generator, in [0, bound)
+         *
+         * @param bound
+         * @return
+         */
+        private int nextInt(int bound) {
+            long z = (randomState += 0x9E3779B97F4A7C15L);
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            z ^= z >>> 31;
+            return (int) (((z >>> 32) * bound) >>> 32);
+        }
+    }
+}
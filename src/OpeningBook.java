@@ -0,0 +1,181 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Precomputed first shots of the bot.
+ *
+ * As long as every shot has missed, the bot's next shot depends only on the Miss cells and the fleet, so the
+ * opening is the same in every game. The book maps (Miss mask, fleet) to the shot the bot would compute, for the
+ * first plies of the miss-only history. It is built offline with the same density engine the bot plays with and
+ * stored as a sorted table of fixed-width records, which is memory-mapped and binary searched in place.
+ *
+ * File layout (big endian): int magic, int version, int ProbabilityMode ordinal, int record count, then per record
+ * long missLo, long missHi, long fleetKey, byte cell (x * 10 + y).
+ *
+ * Usage: java OpeningBook file [probability mode] [plies]
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class OpeningBook {
+    private static final int MAGIC = 0x4F424B31;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_BYTES = 25;
+
+    public static final int DEFAULT_PLIES = 20;
+
+    private final ByteBuffer records;
+
+    private final int size;
+
+    private final ProbabilityMode probabilityMode;
+
+    private OpeningBook(ByteBuffer buffer) {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+            throw new IllegalArgumentException("Not an opening book");
+
+        this.probabilityMode = ProbabilityMode.values()[buffer.getInt(8)];
+        this.size = buffer.getInt(12);
+        this.records = buffer;
+
+        if (buffer.capacity() < HEADER_BYTES + (long) size * RECORD_BYTES)
+            throw new IllegalArgumentException("Truncated opening book");
+    }
+
+    /**
+     * Memory-map a book file
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static OpeningBook load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new OpeningBook(buffer.order(ByteOrder.BIG_ENDIAN));
+        }
+    }
+
+    /**
+     * The probability mode the book was built with. A bot may only use a book built with its own mode
+     *
+     * @return
+     */
+    public ProbabilityMode getProbabilityMode() {
+        return probabilityMode;
+    }
+
+    /**
+     * Returns the number of positions in the book
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Find the shot for a position
+     *
+     * @param missLo   low 64 cells of the Miss cells
+     * @param missHi   high 36 cells of the Miss cells
+     * @param fleetKey see fleetKey
+     * @return the cell x * 10 + y, or -1 if the position is not in the book
+     */
+    public int lookup(long missLo, long missHi, long fleetKey) {
+        int low = 0;
+        int high = size - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int offset = HEADER_BYTES + middle * RECORD_BYTES;
+
+            int comparison = Long.compare(records.getLong(offset), missLo);
+            if (comparison == 0) comparison = Long.compare(records.getLong(offset + 8), missHi);
+            if (comparison == 0) comparison = Long.compare(records.getLong(offset + 16), fleetKey);
+
+            if (comparison < 0) low = middle + 1;
+            else if (comparison > 0) high = middle - 1;
+            else return records.get(offset + 24);
+        }
+
+        return -1;
+    }
+
+    /**
+     * Encode a fleet as the number of ships of each length, 4 bits per length from 1 to 15
+     *
+     * @param aliveShips
+     * @return
+     */
+    public static long fleetKey(List<Integer> aliveShips) {
+        long key = 0;
+        for (int i = 0; i < aliveShips.size(); ++i) {
+            int length = aliveShips.get(i);
+            if (length >= 1 && length <= 15) key += 1L << (4 * (length - 1));
+        }
+
+        return key;
+    }
+
+    /**
+     * Play the miss-only history of the bot and write the shot of every position to a book file
+     *
+     * @param file
+     * @param shipSizes
+     * @param probabilityMode
+     * @param plies           number of positions to record
+     * @throws IOException
+     */
+    public static void build(Path file, int[] shipSizes, ProbabilityMode probabilityMode, int plies) throws IOException {
+        VirtualField virtualField = new VirtualField(shipSizes, probabilityMode, BoardLayout.Packed);
+        List<long[]> positions = new ArrayList<>();
+
+        for (int ply = 0; ply < plies; ++ply) {
+            virtualField.updateProbability();
+            java.awt.Point shot = virtualField.getNextShot();
+            if (shot == null) break;
+
+            positions.add(new long[]{virtualField.getMissLo(), virtualField.getMissHi(),
+                    fleetKey(virtualField.aliveShips), shot.x * 10 + shot.y});
+            virtualField.setCellState(shot.x, shot.y, CellState.Miss);
+        }
+
+        positions.sort(Comparator.<long[]>comparingLong(p -> p[0]).thenComparingLong(p -> p[1]).thenComparingLong(p -> p[2]));
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + positions.size() * RECORD_BYTES);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(probabilityMode.ordinal()).putInt(positions.size());
+        for (long[] position : positions)
+            buffer.putLong(position[0]).putLong(position[1]).putLong(position[2]).put((byte) position[3]);
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java OpeningBook file [probability mode] [plies]");
+            return;
+        }
+
+        ProbabilityMode probabilityMode = args.length > 1 ? ProbabilityMode.valueOf(args[1]) : ProbabilityMode.Bitboard;
+        int plies = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PLIES;
+
+        build(Path.of(args[0]), battleship.BattleShip.DEFAULTSHIPSIZES, probabilityMode, plies);
+        System.out.printf("Wrote %s: %d plies, %s - %s\n", args[0], plies, probabilityMode,
+                Arrays.toString(battleship.BattleShip.DEFAULTSHIPSIZES));
+    }
+}
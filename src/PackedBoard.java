@@ -0,0 +1,87 @@
+import java.util.Arrays;
+
+/**
+ * Flat primitive storage for the board: one byte per cell for the CellState and one int per cell for the density,
+ * indexed by x * boardSize + y. The whole board fits in a few cache lines and a scan never leaves the two arrays.
+ *
+ * The Cell objects of VirtualField.board are views over this storage in BoardLayout.Packed.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class PackedBoard {
+    // The size of the default board
+    public static final int BOARD_SIZE = 10;
+
+    private static final CellState[] STATES = CellState.values();
+
+    // The number of cells on the board
+    public final int cells;
+
+    // CellState ordinal of each cell
+    public final byte[] states;
+
+    // Density of each cell
+    public final int[] density;
+
+    /**
+     * Constructor for the default 10 x 10 board
+     */
+    public PackedBoard() {
+        this(BOARD_SIZE);
+    }
+
+    /**
+     * Constructor for a square board
+     *
+     * @param boardSize
+     */
+    public PackedBoard(int boardSize) {
+        this.cells = boardSize * boardSize;
+        this.states = new byte[cells];
+        this.density = new int[cells];
+    }
+
+    /**
+     * Get the CellState of a cell
+     *
+     * @param index
+     * @return
+     */
+    public CellState getCellState(int index) {
+        return STATES[states[index]];
+    }
+
+    /**
+     * Set the CellState of a cell
+     *
+     * @param index
+     * @param state
+     */
+    public void setCellState(int index, CellState state) {
+        states[index] = (byte) state.ordinal();
+    }
+
+    /**
+     * Return the number of cells with state
+     *
+     * @param state
+     * @return
+     */
+    public int count(CellState state) {
+        byte ordinal = (byte) state.ordinal();
+        int result = 0;
+
+        for (int index = 0; index < cells; ++index)
+            if (states[index] == ordinal) ++result;
+
+        return result;
+    }
+
+    /**
+     * Reset the density of all cells
+     */
+    public void resetDensity() {
+        Arrays.fill(density, 0);
+    }
+}
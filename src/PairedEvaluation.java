@@ -0,0 +1,445 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Compares two bot variants on the same games and stops as soon as the answer is clear.
+ *
+ * Game i is played by both variants on the fleet layout of seed GameRunner.gameSeed(masterSeed, i), so the layout
+ * luck cancels out of the difference of their shot counts, whose spread is much smaller than that of either count.
+ * Games are played in looks of lookGames games across a ForkJoin pool, and after every look the running mean and
+ * variance of the difference give a confidence interval. The run stops once the interval excludes 0 (one variant
+ * is better) or lies within +-margin shots (the difference is negligible), or after maxGames games.
+ *
+ * Checking after every look would make a plain 95% interval wrong more often than 5% of the time, so each look
+ * uses alpha / looks, where looks is the number of looks maxGames allows (Bonferroni). The verdict then holds at
+ * level alpha over the whole run, whichever look it stops at. Looks are folded in game order, so the verdict and
+ * the number of games do not depend on the number of threads.
+ *
+ * Usage: java PairedEvaluation variantA variantB [max games] [threads] [margin] [alpha] [csv file]
+ * A variant is a probability mode, optionally with a lookahead over K cells: Bitboard, Scan, Bitboard:8
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class PairedEvaluation {
+    // Number of games a single task plays before it stops splitting
+    private static final int GAMES_PER_TASK = 64;
+
+    /**
+     * A named way of building a bot for a game
+     */
+    public static final class Variant {
+        public final String name;
+        private final Function<BattleshipGame, DrInvisible_Bot> factory;
+
+        public Variant(String name, Function<BattleshipGame, DrInvisible_Bot> factory) {
+            this.name = name;
+            this.factory = factory;
+        }
+
+        /**
+         * Parse a variant such as "Bitboard" or "Bitboard:8", a probability mode and an optional lookahead
+         *
+         * @param spec
+         * @return
+         */
+        public static Variant parse(String spec) {
+            String[] parts = spec.split(":");
+            ProbabilityMode probabilityMode = ProbabilityMode.valueOf(parts[0]);
+            int candidates = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+
+            return new Variant(spec, game -> {
+                DrInvisible_Bot bot = new DrInvisible_Bot(game, probabilityMode);
+                if (candidates > 0) bot.setLookahead(new ShotLookahead(game.boardSize(), candidates, Long.MAX_VALUE));
+                return bot;
+            });
+        }
+    }
+
+    /**
+     * Outcome of a comparison
+     */
+    public enum Verdict {
+        FirstBetter,
+        SecondBetter,
+        Negligible,
+        Undecided
+    }
+
+    private final Variant first;
+    private final Variant second;
+    private final long masterSeed;
+    private final int maxGames;
+    private final int lookGames;
+    private final int parallelism;
+    private final double margin;
+    private final double alpha;
+
+    // Receives "game,seed,first shots,second shots" for every game, null for none
+    private PrintWriter gameLog;
+
+    // One reusable simulator per worker thread
+    private final ThreadLocal<FastBattleShip> simulators = ThreadLocal.withInitial(FastBattleShip::new);
+
+    /**
+     * Constructor
+     *
+     * @param first
+     * @param second
+     * @param masterSeed  seed of the games, see GameRunner.gameSeed
+     * @param maxGames    games played at most by each variant
+     * @param lookGames   games played between two looks at the difference
+     * @param parallelism
+     * @param margin      differences within +-margin shots per game are negligible
+     * @param alpha       probability of a wrong verdict, over the whole run
+     */
+    public PairedEvaluation(Variant first, Variant second, long masterSeed, int maxGames, int lookGames,
+                            int parallelism, double margin, double alpha) {
+        if (maxGames < 2 || lookGames < 2) throw new IllegalArgumentException("Need at least 2 games per look");
+        if (alpha <= 0 || alpha >= 1) throw new IllegalArgumentException("Invalid alpha: " + alpha);
+
+        this.first = first;
+        this.second = second;
+        this.masterSeed = masterSeed;
+        this.maxGames = maxGames;
+        this.lookGames = lookGames;
+        this.parallelism = parallelism;
+        this.margin = margin;
+        this.alpha = alpha;
+    }
+
+    /**
+     * Write the shot counts of every game as CSV, in game order
+     *
+     * @param gameLog null for none
+     */
+    public void setGameLog(PrintWriter gameLog) {
+        this.gameLog = gameLog;
+        if (gameLog != null) gameLog.println("game,seed," + first.name + "," + second.name);
+    }
+
+    /**
+     * Play looks of games until the verdict is clear or maxGames games are played
+     *
+     * @param progress receives the state of the comparison after every look, null for none
+     * @return
+     */
+    public Result run(Consumer<Result> progress) {
+        int looks = (maxGames + lookGames - 1) / lookGames;
+        double z = normalQuantile(1 - alpha / (2.0 * looks));
+
+        int cells = FastBattleShip.BOARD_SIZE * FastBattleShip.BOARD_SIZE;
+        Result result = new Result(first.name, second.name, new Distribution(cells), new Distribution(cells), z, margin);
+        int[] firstShots = new int[lookGames];
+        int[] secondShots = new int[lookGames];
+
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (int from = 0; from < maxGames && result.verdict == Verdict.Undecided; from += lookGames) {
+                int to = Math.min(maxGames, from + lookGames);
+                pool.invoke(new LookTask(from, from, to, firstShots, secondShots));
+
+                for (int game = from; game < to; ++game) {
+                    result.add(firstShots[game - from], secondShots[game - from]);
+                    if (gameLog != null)
+                        gameLog.println(game + "," + GameRunner.gameSeed(masterSeed, game) + "," + firstShots[game - from]
+                                + "," + secondShots[game - from]);
+                }
+
+                result.elapsedNanos = System.nanoTime() - start;
+                result.decide();
+                if (progress != null) progress.accept(result);
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        if (gameLog != null) gameLog.flush();
+        return result;
+    }
+
+    private int play(Variant variant, long seed) {
+        FastBattleShip game = simulators.get();
+        game.reset(seed);
+
+        DrInvisible_Bot bot = variant.factory.apply(game);
+        while (!game.allSunk()) bot.fireShot();
+
+        return game.totalShotsTaken();
+    }
+
+    /**
+     * Task playing a range of games of a look with both variants, splitting in half until the range is small enough
+     */
+    private final class LookTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int lookStart;
+        private final int from;
+        private final int to;
+        private final int[] firstShots;
+        private final int[] secondShots;
+
+        LookTask(int lookStart, int from, int to, int[] firstShots, int[] secondShots) {
+            this.lookStart = lookStart;
+            this.from = from;
+            this.to = to;
+            this.firstShots = firstShots;
+            this.secondShots = secondShots;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= GAMES_PER_TASK) {
+                for (int game = from; game < to; ++game) {
+                    long seed = GameRunner.gameSeed(masterSeed, game);
+                    firstShots[game - lookStart] = play(first, seed);
+                    secondShots[game - lookStart] = play(second, seed);
+                }
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new LookTask(lookStart, from, middle, firstShots, secondShots),
+                    new LookTask(lookStart, middle, to, firstShots, secondShots));
+        }
+    }
+
+    /**
+     * Histogram of the number of shots per game
+     */
+    public static final class Distribution {
+        private final long[] counts;
+        private long games;
+        private long totalShots;
+
+        Distribution(int maxShots) {
+            this.counts = new long[maxShots + 1];
+        }
+
+        void add(int shots) {
+            ++counts[Math.min(shots, counts.length - 1)];
+            ++games;
+            totalShots += shots;
+        }
+
+        public long getGames() {
+            return games;
+        }
+
+        public double getMean() {
+            return games == 0 ? 0 : (double) totalShots / games;
+        }
+
+        /**
+         * Returns the number of games that took a number of shots
+         *
+         * @param shots
+         * @return
+         */
+        public long getCount(int shots) {
+            return shots < 0 || shots >= counts.length ? 0 : counts[shots];
+        }
+
+        /**
+         * Returns the smallest number of shots that at least the given percentage of the games did not exceed
+         *
+         * @param percentile between 0 and 100
+         * @return
+         */
+        public int getPercentile(double percentile) {
+            long target = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * games));
+            long seen = 0;
+            for (int shots = 0; shots < counts.length; ++shots) {
+                seen += counts[shots];
+                if (seen >= target) return shots;
+            }
+
+            return counts.length - 1;
+        }
+
+        public int getMin() {
+            return getPercentile(0);
+        }
+
+        public int getMax() {
+            for (int shots = counts.length - 1; shots > 0; --shots)
+                if (counts[shots] > 0) return shots;
+
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("mean %.3f, min %d, p10 %d, p50 %d, p90 %d, p99 %d, max %d", getMean(), getMin(),
+                    getPercentile(10), getPercentile(50), getPercentile(90), getPercentile(99), getMax());
+        }
+
+        /**
+         * Returns a text histogram with one line per number of shots between min and max
+         *
+         * @param width length of the longest bar
+         * @return
+         */
+        public String histogram(int width) {
+            long peak = Arrays.stream(counts).max().orElse(0);
+            StringBuilder builder = new StringBuilder();
+            for (int shots = getMin(); shots <= getMax() && peak > 0; ++shots) {
+                builder.append(String.format("%3d %7d ", shots, counts[shots]));
+                builder.append("#".repeat((int) (counts[shots] * width / peak))).append('\n');
+            }
+
+            return builder.toString();
+        }
+    }
+
+    /**
+     * State of a comparison: both distributions and the running statistics of the paired difference, first minus
+     * second, so a negative difference means the first variant takes fewer shots
+     */
+    public static final class Result {
+        public final String firstName;
+        public final String secondName;
+        public final Distribution first;
+        public final Distribution second;
+
+        // Critical value of a look, and the negligible difference
+        public final double z;
+        public final double margin;
+
+        public Verdict verdict = Verdict.Undecided;
+        public long elapsedNanos;
+
+        // Welford's running mean and sum of squared deviations of the difference
+        private long games;
+        private double meanDifference;
+        private double squaredDeviations;
+
+        Result(String firstName, String secondName, Distribution first, Distribution second, double z, double margin) {
+            this.firstName = firstName;
+            this.secondName = secondName;
+            this.first = first;
+            this.second = second;
+            this.z = z;
+            this.margin = margin;
+        }
+
+        void add(int firstShots, int secondShots) {
+            first.add(firstShots);
+            second.add(secondShots);
+
+            double difference = firstShots - secondShots;
+            ++games;
+            double delta = difference - meanDifference;
+            meanDifference += delta / games;
+            squaredDeviations += delta * (difference - meanDifference);
+        }
+
+        void decide() {
+            double halfWidth = getHalfWidth();
+            if (getMeanDifference() - halfWidth > 0) verdict = Verdict.SecondBetter;
+            else if (getMeanDifference() + halfWidth < 0) verdict = Verdict.FirstBetter;
+            else if (Math.abs(getMeanDifference()) + halfWidth < margin) verdict = Verdict.Negligible;
+            else verdict = Verdict.Undecided;
+        }
+
+        public long getGames() {
+            return games;
+        }
+
+        public double getMeanDifference() {
+            return meanDifference;
+        }
+
+        /**
+         * Returns the standard deviation of the difference of one game
+         *
+         * @return
+         */
+        public double getStandardDeviation() {
+            return games < 2 ? 0 : Math.sqrt(squaredDeviations / (games - 1));
+        }
+
+        /**
+         * Returns the half width of the confidence interval of the mean difference
+         *
+         * @return
+         */
+        public double getHalfWidth() {
+            return games < 2 ? Double.POSITIVE_INFINITY : z * getStandardDeviation() / Math.sqrt(games);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d games: %s - %s = %+.3f +- %.3f shots per game (sd %.2f) - %s", games, firstName,
+                    secondName, getMeanDifference(), getHalfWidth(), getStandardDeviation(), verdict);
+        }
+    }
+
+    /**
+     * Inverse of the standard normal distribution function (Acklam's rational approximation, relative error under
+     * 1.2e-9)
+     *
+     * @param p between 0 and 1 exclusive
+     * @return
+     */
+    static double normalQuantile(double p) {
+        double[] a = {-3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02, 1.383577518672690e+02,
+                -3.066479806614716e+01, 2.506628277459239e+00};
+        double[] b = {-5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02, 6.680131188771972e+01,
+                -1.328068155288572e+01};
+        double[] c = {-7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00, -2.549732539343734e+00,
+                4.374664141464968e+00, 2.938163982698783e+00};
+        double[] d = {7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00, 3.754408661907416e+00};
+
+        if (p < 0.02425) {
+            double q = Math.sqrt(-2 * Math.log(p));
+            return (((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5]) /
+                    ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+        }
+        if (p > 1 - 0.02425) return -normalQuantile(1 - p);
+
+        double q = p - 0.5;
+        double r = q * q;
+        return (((((a[0] * r + a[1]) * r + a[2]) * r + a[3]) * r + a[4]) * r + a[5]) * q /
+                (((((b[0] * r + b[1]) * r + b[2]) * r + b[3]) * r + b[4]) * r + 1);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: java PairedEvaluation variantA variantB [max games] [threads] [margin] [alpha] [csv file]");
+            return;
+        }
+
+        Variant first = Variant.parse(args[0]);
+        Variant second = Variant.parse(args[1]);
+        int maxGames = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+        int parallelism = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        double margin = args.length > 4 ? Double.parseDouble(args[4]) : 0.05;
+        double alpha = args.length > 5 ? Double.parseDouble(args[5]) : 0.05;
+
+        PairedEvaluation evaluation = new PairedEvaluation(first, second, A6.MASTERSEED, maxGames,
+                Math.min(maxGames, 2000), parallelism, margin, alpha);
+
+        PrintWriter gameLog = args.length > 6 ? new PrintWriter(Files.newBufferedWriter(Path.of(args[6]))) : null;
+        try {
+            evaluation.setGameLog(gameLog);
+            Result result = evaluation.run(System.out::println);
+
+            System.out.printf("%s: %s\n%s: %s\n", first.name, result.first, second.name, result.second);
+            System.out.printf("%.1f s, %.0f game pairs/sec\n", result.elapsedNanos / 1e9, result.getGames() * 1e9 / result.elapsedNanos);
+            System.out.print(first.name + "\n" + result.first.histogram(60));
+            System.out.print(second.name + "\n" + result.second.histogram(60));
+        } finally {
+            if (gameLog != null) gameLog.close();
+        }
+    }
+}
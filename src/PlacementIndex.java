@@ -0,0 +1,122 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Every ship placement of a square board, with the placements running through each cell.
+ *
+ * The density engines and the board scan all walk the same placements: the start cell and step of each placement
+ * of a length to count it, and the placements through a cell to take them out when the cell is blocked. The index
+ * lists them once per board size and is shared by every engine and every game on that board, so blocking a cell
+ * costs one pass over its inverted list, O(placements through the cell), and no engine recomputes the geometry.
+ *
+ * Placements of a length are numbered as in GridField and PlacementPrior: along y first (x * perLine + y), then
+ * along x (boardSize * perLine + x * boardSize + y), where perLine = boardSize - length + 1. The tables of a length
+ * are built the first time it is asked for, so lengths no fleet uses cost nothing.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class PlacementIndex {
+    // Indexes of every board size in use
+    private static final ConcurrentHashMap<Integer, PlacementIndex> INDEXES = new ConcurrentHashMap<>();
+
+    private final int boardSize;
+
+    // Placements of each length, null until first asked for
+    private final Placements[] lengths;
+
+    /**
+     * The placements of one length
+     */
+    public static final class Placements {
+        public final int length;
+
+        // First cell and step (1 along y, boardSize along x) of every placement
+        public final int[] start;
+        public final int[] step;
+
+        // Placements covering each cell, through[firstThrough[cell]] up to through[firstThrough[cell + 1]]
+        public final int[] firstThrough;
+        public final int[] through;
+
+        Placements(int boardSize, int length) {
+            int cells = boardSize * boardSize;
+            int perLine = boardSize - length + 1;
+            int count = 2 * boardSize * perLine;
+
+            this.length = length;
+            this.start = new int[count];
+            this.step = new int[count];
+            this.firstThrough = new int[cells + 1];
+            this.through = new int[count * length];
+
+            int p = 0;
+            for (int x = 0; x < boardSize; ++x)
+                for (int y = 0; y < perLine; ++y) {
+                    start[p] = x * boardSize + y;
+                    step[p++] = 1;
+                }
+
+            for (int x = 0; x < perLine; ++x)
+                for (int y = 0; y < boardSize; ++y) {
+                    start[p] = x * boardSize + y;
+                    step[p++] = boardSize;
+                }
+
+            // Count the placements of every cell, then fill the lists in placement order
+            for (p = 0; p < count; ++p)
+                for (int l = 0, cell = start[p]; l < length; ++l, cell += step[p]) ++firstThrough[cell + 1];
+            for (int cell = 0; cell < cells; ++cell) firstThrough[cell + 1] += firstThrough[cell];
+
+            int[] fill = new int[cells];
+            for (p = 0; p < count; ++p)
+                for (int l = 0, cell = start[p]; l < length; ++l, cell += step[p])
+                    through[firstThrough[cell] + fill[cell]++] = p;
+        }
+
+        /**
+         * Returns the number of placements
+         *
+         * @return
+         */
+        public int count() {
+            return start.length;
+        }
+    }
+
+    private PlacementIndex(int boardSize) {
+        this.boardSize = boardSize;
+        this.lengths = new Placements[boardSize + 1];
+    }
+
+    /**
+     * Returns the shared index of a board size
+     *
+     * @param boardSize
+     * @return
+     */
+    public static PlacementIndex of(int boardSize) {
+        if (boardSize < 1) throw new IllegalArgumentException("Invalid board size: " + boardSize);
+        return INDEXES.computeIfAbsent(boardSize, PlacementIndex::new);
+    }
+
+    public int getBoardSize() {
+        return boardSize;
+    }
+
+    /**
+     * Returns the placements of a length, building them on first use
+     *
+     * @param length between 1 and the board size
+     * @return
+     */
+    public Placements get(int length) {
+        // Placements only has final fields, so a racy read sees it whole or not at all
+        Placements placements = lengths[length];
+        if (placements != null) return placements;
+
+        synchronized (lengths) {
+            if (lengths[length] == null) lengths[length] = new Placements(boardSize, length);
+            return lengths[length];
+        }
+    }
+}
@@ -0,0 +1,343 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Placement weights learned from the fleets of finished games.
+ *
+ * The density engines count every legal placement of a ship once, as if the opponent placed ships uniformly. Real
+ * opponents have habits: they avoid the edges, keep ships apart or lay them mostly one way. The prior counts how
+ * often each placement, a (length, orientation, start cell), held a sunk ship, and turns the counts into integer
+ * multipliers that WeightedField applies to the placements in its density. A placement seen as often as a uniform
+ * opponent would place it weighs SCALE; the counts are smoothed with a few pseudo-observations per placement so
+ * that an unseen placement is not ruled out, and weights are clamped to [SCALE / 16, 16 * SCALE].
+ *
+ * Placements of a length are numbered as in GridField, along y first (x * perLine + y), then along x, and all
+ * lengths share one flat table. Game workers add their observations with atomic increments, so learning never
+ * locks; the weights are recomputed every publishInterval games into a new array, which a bot reads once when its
+ * engine is created, so a game always plays with one consistent table.
+ *
+ * File layout (big endian): int magic, int version, int board size, long games, then per length 1..board size the
+ * int number of ships observed, then the int count of every placement of the table.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class PlacementPrior {
+    private static final int MAGIC = 0x504C5031;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 20;
+
+    // Weight of a placement seen exactly as often as under a uniform opponent
+    public static final int SCALE = 1 << 10;
+
+    private static final int MIN_WEIGHT = SCALE / 16;
+    private static final int MAX_WEIGHT = 16 * SCALE;
+
+    // Pseudo-observations added to every placement before weighing
+    public static final double DEFAULT_SMOOTHING = 4;
+
+    // Games between two recomputations of the weights
+    public static final int DEFAULT_PUBLISH_INTERVAL = 1000;
+
+    private final int boardSize;
+
+    // First entry of each length in the flat table, and the total size at boardSize + 1
+    private final int[] offsets;
+
+    private final double smoothing;
+    private final int publishInterval;
+
+    // Counts of the table and the file they came from, replaced together on a reload
+    private volatile Counts counts;
+
+    // Weights of the current counts, replaced as a whole on every recomputation
+    private volatile int[] weights;
+
+    // File read by load and reloadIfModified, null for none, and its modification time when last read or written
+    private Path file;
+    private volatile FileTime fileTime;
+
+    /**
+     * Observation counts of a table
+     */
+    private static final class Counts {
+        final AtomicIntegerArray placements;
+        final AtomicIntegerArray ships;
+        final AtomicLong games;
+
+        Counts(int tableSize, int boardSize, long games) {
+            this.placements = new AtomicIntegerArray(tableSize);
+            this.ships = new AtomicIntegerArray(boardSize + 1);
+            this.games = new AtomicLong(games);
+        }
+    }
+
+    /**
+     * Constructor for a prior that has seen no game, all of whose weights are SCALE
+     *
+     * @param boardSize
+     */
+    public PlacementPrior(int boardSize) {
+        this(boardSize, DEFAULT_SMOOTHING, DEFAULT_PUBLISH_INTERVAL);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param boardSize
+     * @param smoothing       pseudo-observations per placement, more than 0
+     * @param publishInterval games between two recomputations of the weights
+     */
+    public PlacementPrior(int boardSize, double smoothing, int publishInterval) {
+        if (boardSize < 1) throw new IllegalArgumentException("Invalid board size: " + boardSize);
+        if (smoothing <= 0) throw new IllegalArgumentException("Invalid smoothing: " + smoothing);
+        if (publishInterval < 1) throw new IllegalArgumentException("Invalid publish interval: " + publishInterval);
+
+        this.boardSize = boardSize;
+        this.smoothing = smoothing;
+        this.publishInterval = publishInterval;
+        this.offsets = new int[boardSize + 2];
+        for (int length = 1; length <= boardSize; ++length)
+            offsets[length + 1] = offsets[length] + getPlacementCount(length);
+
+        this.counts = new Counts(offsets[boardSize + 1], boardSize, 0);
+        publish();
+    }
+
+    public int getBoardSize() {
+        return boardSize;
+    }
+
+    /**
+     * Returns the number of placements of a length on an empty board
+     *
+     * @param length
+     * @return
+     */
+    public int getPlacementCount(int length) {
+        return 2 * boardSize * (boardSize - length + 1);
+    }
+
+    /**
+     * Returns the index in the table of the first placement of a length
+     *
+     * @param length
+     * @return
+     */
+    public int getOffset(int length) {
+        return offsets[length];
+    }
+
+    /**
+     * Returns the number of games observed
+     *
+     * @return
+     */
+    public long getGames() {
+        return counts.games.get();
+    }
+
+    /**
+     * Returns the current weights, indexed by index(length, placement). The array is never modified
+     *
+     * @return
+     */
+    public int[] getWeights() {
+        return weights;
+    }
+
+    /**
+     * Returns the index in the table of a placement
+     *
+     * @param length
+     * @param placement number of the placement among those of its length, as in GridField
+     * @return
+     */
+    public int index(int length, int placement) {
+        return offsets[length] + placement;
+    }
+
+    /**
+     * Add the ships of a finished game
+     *
+     * @param placements indices of the sunk ships in the table
+     * @param count      number of ships
+     */
+    public void observeGame(int[] placements, int count) {
+        Counts counts = this.counts;
+
+        for (int i = 0; i < count; ++i) {
+            counts.placements.incrementAndGet(placements[i]);
+            counts.ships.incrementAndGet(lengthOf(placements[i]));
+        }
+
+        if (counts.games.incrementAndGet() % publishInterval == 0) publish();
+    }
+
+    private int lengthOf(int index) {
+        int length = 1;
+        while (offsets[length + 1] <= index) ++length;
+        return length;
+    }
+
+    /**
+     * Recompute the weights from the counts. Concurrent calls each build their own table and the last one stays
+     */
+    public void publish() {
+        Counts counts = this.counts;
+        int[] table = new int[offsets[boardSize + 1]];
+
+        for (int length = 1; length <= boardSize; ++length) {
+            int placements = getPlacementCount(length);
+            double expected = (double) counts.ships.get(length) / placements + smoothing;
+
+            for (int p = offsets[length]; p < offsets[length + 1]; ++p) {
+                long weight = Math.round((counts.placements.get(p) + smoothing) / expected * SCALE);
+                table[p] = (int) Math.max(MIN_WEIGHT, Math.min(MAX_WEIGHT, weight));
+            }
+        }
+
+        weights = table;
+    }
+
+    /**
+     * Read a prior from a file
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static PlacementPrior load(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+            throw new IllegalArgumentException("Not a placement prior");
+
+        PlacementPrior prior = new PlacementPrior(buffer.getInt(8));
+        prior.file = file;
+        prior.read(buffer, Files.getLastModifiedTime(file));
+        return prior;
+    }
+
+    /**
+     * Read a prior from a file, or start an empty one that save will create
+     *
+     * @param file
+     * @param boardSize board size of a new prior
+     * @return
+     * @throws IOException
+     */
+    public static PlacementPrior loadOrCreate(Path file, int boardSize) throws IOException {
+        if (Files.exists(file)) return load(file);
+
+        PlacementPrior prior = new PlacementPrior(boardSize);
+        prior.file = file;
+        return prior;
+    }
+
+    private void read(ByteBuffer buffer, FileTime time) {
+        if (buffer.getInt(8) != boardSize)
+            throw new IllegalArgumentException("Placement prior of a " + buffer.getInt(8) + " x " + buffer.getInt(8) + " board");
+        if (buffer.capacity() != HEADER_BYTES + 4L * (boardSize + offsets[boardSize + 1]))
+            throw new IllegalArgumentException("Truncated placement prior");
+
+        Counts loaded = new Counts(offsets[boardSize + 1], boardSize, buffer.getLong(12));
+        buffer.position(HEADER_BYTES);
+        for (int length = 1; length <= boardSize; ++length) loaded.ships.set(length, buffer.getInt());
+        for (int p = 0; p < offsets[boardSize + 1]; ++p) loaded.placements.set(p, buffer.getInt());
+
+        counts = loaded;
+        fileTime = time;
+        publish();
+    }
+
+    /**
+     * Read the file again if it changed since it was last read or written, replacing the counts and the weights.
+     * Observations made in between are dropped. Cheap enough to call between batches of games
+     *
+     * @return true if the prior was reloaded
+     * @throws IOException
+     */
+    public synchronized boolean reloadIfModified() throws IOException {
+        if (file == null || !Files.exists(file)) return false;
+
+        FileTime time = Files.getLastModifiedTime(file);
+        if (time.equals(fileTime)) return false;
+
+        read(ByteBuffer.wrap(Files.readAllBytes(file)), time);
+        return true;
+    }
+
+    /**
+     * Write the counts to the file the prior was loaded from
+     *
+     * @throws IOException
+     */
+    public void save() throws IOException {
+        if (file == null) throw new IllegalStateException("No file to save to");
+        save(file);
+    }
+
+    /**
+     * Write the counts to a file. The file is replaced in one move, so a process reloading it never reads half a table
+     *
+     * @param file
+     * @throws IOException
+     */
+    public synchronized void save(Path file) throws IOException {
+        Counts counts = this.counts;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 4 * (boardSize + offsets[boardSize + 1]));
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(boardSize).putLong(counts.games.get());
+        for (int length = 1; length <= boardSize; ++length) buffer.putInt(counts.ships.get(length));
+        for (int p = 0; p < offsets[boardSize + 1]; ++p) buffer.putInt(counts.placements.get(p));
+        buffer.flip();
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) channel.write(buffer);
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        if (file.equals(this.file)) fileTime = Files.getLastModifiedTime(file);
+    }
+
+    /**
+     * Returns the weights of a length as a board of the average weight of the placements covering each cell, for a
+     * quick look at what was learned
+     *
+     * @param length
+     * @return
+     */
+    public String toString(int length) {
+        int perLine = boardSize - length + 1;
+        double[] sum = new double[boardSize * boardSize];
+        int[] cover = new int[boardSize * boardSize];
+
+        for (int p = 0; p < getPlacementCount(length); ++p) {
+            boolean alongX = p >= boardSize * perLine;
+            int start = alongX ? p - boardSize * perLine : p / perLine * boardSize + p % perLine;
+            int step = alongX ? boardSize : 1;
+            for (int l = 0, cell = start; l < length; ++l, cell += step) {
+                sum[cell] += (double) weights[offsets[length] + p] / SCALE;
+                ++cover[cell];
+            }
+        }
+
+        StringBuilder builder = new StringBuilder();
+        for (int x = 0; x < boardSize; ++x) {
+            for (int y = 0; y < boardSize; ++y) builder.append(String.format(" %5.2f", sum[x * boardSize + y] / cover[x * boardSize + y]));
+            builder.append('\n');
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,6 @@
+public enum ProbabilityMode {
+    Scan,
+    Bitboard,
+    Exact,
+    MonteCarlo
+}
@@ -0,0 +1,336 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Per-game results of a long campaign, kept off the heap in a memory-mapped file.
+ *
+ * Every game takes one fixed-width record: its game number, seed, position in the trace file and number of shots.
+ * The records are stored by column in segments of SEGMENT_RECORDS, mapped as they are first used: a segment holds
+ * the game numbers of its records, then their seeds, trace positions and shots, so summarize reads the 4-byte shots
+ * column straight from the mapping and a campaign of hundreds of millions of games costs no heap.
+ *
+ * Workers reserve a range of slots with one atomic add on the slot counter in the file header, then fill them
+ * without any lock. The shots of a record are written last, with release semantics, as shots + 1, so a slot that
+ * reads 0 was never finished. A process killed during a run leaves its finished records in the page cache and its
+ * unfinished slots as holes; opening the file again finds the games that were recorded, and GameRunner only plays
+ * the others. force() writes the mapping to the disk, for crashes of the machine.
+ *
+ * The header also holds the configuration of the bots, encoded as in the header of a trace file (probability mode,
+ * board, fleet, strategy constants, lookahead and sinking), and opening the file with another configuration or master
+ * seed is refused, so that the games of two different campaigns are never summarized together.
+ *
+ * File layout (big endian): int magic, int version, int records per segment, int configuration byte count, long
+ * master seed, long next slot, the configuration bytes (see TraceWriter.configuration), padded to HEADER_BYTES,
+ * then per segment long game[], long seed[], long trace position[] (-1 for none, see TraceWriter.write) and
+ * int shots + 1[].
+ *
+ * Usage: java ResultStore file [max shots]
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class ResultStore implements Closeable {
+    private static final int MAGIC = 0x52535431;
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 4096;
+    private static final int NEXT_SLOT = 24;
+    private static final int CONFIGURATION = 32;
+
+    // Records of a segment, 28 MB of file
+    public static final int SEGMENT_RECORDS = 1 << 20;
+
+    // Column offsets in a segment
+    private static final int SEEDS = 8 * SEGMENT_RECORDS;
+    private static final int TRACE_POSITIONS = 16 * SEGMENT_RECORDS;
+    private static final int SHOTS = 24 * SEGMENT_RECORDS;
+    private static final int SEGMENT_BYTES = 28 * SEGMENT_RECORDS;
+
+    // Segments of a file, for 16G records
+    private static final int MAX_SEGMENTS = 1 << 14;
+
+    // Games read from the shots column per bulk copy while summarizing
+    private static final int CHUNK = 1 << 12;
+
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final long masterSeed;
+    private final byte[] configuration;
+
+    // Segments mapped so far, null until first used
+    private final AtomicReferenceArray<MappedByteBuffer> segments = new AtomicReferenceArray<>(MAX_SEGMENTS);
+
+    // Game numbers recorded in the file when it was opened
+    private final BitSet recorded = new BitSet();
+
+    /**
+     * Open a result store, creating the file if needed
+     *
+     * @param file
+     * @param masterSeed    master seed of the campaign, checked against an existing file
+     * @param configuration configuration of the bots, see TraceWriter.configuration, checked against an existing file
+     * @throws IOException
+     */
+    public ResultStore(Path file, long masterSeed, byte[] configuration) throws IOException {
+        if (CONFIGURATION + configuration.length > HEADER_BYTES)
+            throw new IllegalArgumentException("Configuration of " + configuration.length + " bytes does not fit the header");
+
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean created = channel.size() == 0;
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+
+        try {
+            // The magic number goes in last, so a file cut short while being created is created again
+            if (created || header.getInt(0) == 0) {
+                header.putInt(4, VERSION).putInt(8, SEGMENT_RECORDS).putInt(12, configuration.length)
+                        .putLong(16, masterSeed).putLong(NEXT_SLOT, 0).put(CONFIGURATION, configuration);
+                header.putInt(0, MAGIC);
+            } else if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(8) != SEGMENT_RECORDS) {
+                throw new IllegalArgumentException("Not a result store");
+            } else if (header.getLong(16) != masterSeed) {
+                throw new IllegalArgumentException("Results of master seed " + header.getLong(16) + ", not " + masterSeed);
+            } else if (!Arrays.equals(readConfiguration(header), configuration)) {
+                throw new IllegalArgumentException("Results of bots with another probability mode, board, fleet, strategy constants, lookahead or sinking");
+            }
+        } catch (RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+
+        this.masterSeed = masterSeed;
+        this.configuration = configuration.clone();
+        readRecorded();
+    }
+
+    /**
+     * Open an existing result store with the master seed and configuration of its header
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static ResultStore open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) throw new IllegalArgumentException("Not a result store");
+
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) throw new IllegalArgumentException("Not a result store");
+            return new ResultStore(file, header.getLong(16), readConfiguration(header));
+        }
+    }
+
+    private static byte[] readConfiguration(MappedByteBuffer header) {
+        int length = header.getInt(12);
+        if (length < 0 || CONFIGURATION + length > HEADER_BYTES) throw new IllegalArgumentException("Not a result store");
+
+        byte[] configuration = new byte[length];
+        header.get(CONFIGURATION, configuration);
+        return configuration;
+    }
+
+    /**
+     * Mark the games of every finished record, one bit per game on the heap
+     */
+    private void readRecorded() {
+        long slots = getSlots();
+
+        for (int index = 0; (long) index * SEGMENT_RECORDS < slots; ++index) {
+            int records = (int) Math.min(SEGMENT_RECORDS, slots - (long) index * SEGMENT_RECORDS);
+            MappedByteBuffer segment = segment(index);
+
+            for (int record = 0; record < records; ++record) {
+                long game = segment.getLong(8 * record);
+                if (segment.getInt(SHOTS + 4 * record) > 0 && game >= 0 && game <= Integer.MAX_VALUE) recorded.set((int) game);
+            }
+        }
+    }
+
+    public long getMasterSeed() {
+        return masterSeed;
+    }
+
+    public byte[] getConfiguration() {
+        return configuration.clone();
+    }
+
+    /**
+     * Returns the number of slots reserved so far, finished or not
+     *
+     * @return
+     */
+    public long getSlots() {
+        return (long) LONG.getVolatile(header, NEXT_SLOT);
+    }
+
+    /**
+     * Returns whether a game had a finished record when the store was opened
+     *
+     * @param game
+     * @return
+     */
+    public boolean isRecorded(long game) {
+        return game >= 0 && game <= Integer.MAX_VALUE && recorded.get((int) game);
+    }
+
+    /**
+     * Returns the number of games between two game numbers that had a finished record when the store was opened
+     *
+     * @param from first game
+     * @param to   game after the last
+     * @return
+     */
+    public int countRecorded(int from, int to) {
+        return from >= to ? 0 : recorded.get(from, to).cardinality();
+    }
+
+    /**
+     * Reserve consecutive slots for the calling thread
+     *
+     * @param count
+     * @return the first slot
+     */
+    public long reserve(int count) {
+        long first = (long) LONG.getAndAdd(header, NEXT_SLOT, (long) count);
+        if (first + count > (long) MAX_SEGMENTS * SEGMENT_RECORDS) throw new IllegalStateException("Result store full");
+
+        return first;
+    }
+
+    /**
+     * Fill a reserved slot
+     *
+     * @param slot
+     * @param game
+     * @param seed
+     * @param tracePosition position of the game in the trace file, -1 for none
+     * @param shots
+     */
+    public void record(long slot, long game, long seed, long tracePosition, int shots) {
+        MappedByteBuffer segment = segment((int) (slot / SEGMENT_RECORDS));
+        int record = (int) (slot % SEGMENT_RECORDS);
+
+        segment.putLong(8 * record, game);
+        segment.putLong(SEEDS + 8 * record, seed);
+        segment.putLong(TRACE_POSITIONS + 8 * record, tracePosition);
+        INT.setRelease(segment, SHOTS + 4 * record, shots + 1);
+    }
+
+    public long getGame(long slot) {
+        return segment((int) (slot / SEGMENT_RECORDS)).getLong(8 * (int) (slot % SEGMENT_RECORDS));
+    }
+
+    public long getSeed(long slot) {
+        return segment((int) (slot / SEGMENT_RECORDS)).getLong(SEEDS + 8 * (int) (slot % SEGMENT_RECORDS));
+    }
+
+    public long getTracePosition(long slot) {
+        return segment((int) (slot / SEGMENT_RECORDS)).getLong(TRACE_POSITIONS + 8 * (int) (slot % SEGMENT_RECORDS));
+    }
+
+    /**
+     * Returns the shots of a record
+     *
+     * @param slot
+     * @return the shots, or -1 if the record is not finished
+     */
+    public int getShots(long slot) {
+        return (int) INT.getAcquire(segment((int) (slot / SEGMENT_RECORDS)), SHOTS + 4 * (int) (slot % SEGMENT_RECORDS)) - 1;
+    }
+
+    /**
+     * Returns the segment of a slot, mapping it on first use. Mapping past the end of the file grows it
+     *
+     * @param index
+     * @return
+     */
+    private MappedByteBuffer segment(int index) {
+        MappedByteBuffer segment = segments.get(index);
+        if (segment != null) return segment;
+
+        synchronized (segments) {
+            if (segments.get(index) == null) {
+                try {
+                    segments.set(index, channel.map(FileChannel.MapMode.READ_WRITE,
+                            HEADER_BYTES + (long) index * SEGMENT_BYTES, SEGMENT_BYTES));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            return segments.get(index);
+        }
+    }
+
+    /**
+     * Build the shot distribution of every finished record by scanning the shots column
+     *
+     * @param maxShots games with more shots are counted as maxShots
+     * @return
+     */
+    public PairedEvaluation.Distribution summarize(int maxShots) {
+        PairedEvaluation.Distribution distribution = new PairedEvaluation.Distribution(maxShots);
+        int[] chunk = new int[CHUNK];
+        long slots = getSlots();
+
+        for (int index = 0; (long) index * SEGMENT_RECORDS < slots; ++index) {
+            int records = (int) Math.min(SEGMENT_RECORDS, slots - (long) index * SEGMENT_RECORDS);
+            IntBuffer shots = segment(index).slice(SHOTS, 4 * records).asIntBuffer();
+
+            while (shots.hasRemaining()) {
+                int count = Math.min(CHUNK, shots.remaining());
+                shots.get(chunk, 0, count);
+                for (int i = 0; i < count; ++i)
+                    if (chunk[i] > 0) distribution.add(chunk[i] - 1);
+            }
+        }
+
+        return distribution;
+    }
+
+    /**
+     * Write the header and every mapped segment to the disk
+     */
+    public void force() {
+        header.force();
+        for (int index = 0; index < MAX_SEGMENTS && segments.get(index) != null; ++index) segments.get(index).force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java ResultStore file [max shots]");
+            return;
+        }
+
+        int maxShots = args.length > 1 ? Integer.parseInt(args[1]) : VirtualField.DEFAULT_BOARD_SIZE * VirtualField.DEFAULT_BOARD_SIZE;
+        try (ResultStore store = open(Path.of(args[0]))) {
+            long start = System.nanoTime();
+            PairedEvaluation.Distribution distribution = store.summarize(maxShots);
+            long elapsed = System.nanoTime() - start;
+
+            System.out.printf("%d games, %d unfinished slots, scanned in %.1f ms\n", distribution.getGames(),
+                    store.getSlots() - distribution.getGames(), elapsed / 1e6);
+            System.out.println(distribution);
+            System.out.print(distribution.histogram(60));
+        }
+    }
+}
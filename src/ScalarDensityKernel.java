@@ -0,0 +1,73 @@
+/**
+ * Plain Java DensityKernel, used when the Vector API is not available.
+ *
+ * Free cells and legal starts are kept as 0/1 ints in buffers padded with zeros on both sides, so the shifted reads
+ * need no bounds checks and the loops match VectorDensityKernel lane for lane.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class ScalarDensityKernel implements DensityKernel {
+    // Zero cells on each side of the board in the scratch buffers, enough for a shift of a whole column
+    static final int PAD = CELLS;
+
+    // Length of the padded buffers, with room for a vector running past the last cell
+    static final int PADDED = PAD + CELLS + PAD + 64;
+
+    // For every length, 1 on the cells a ship along y can start from without leaving the row
+    static final int[][] ROW_STARTS = new int[BOARD_SIZE + 1][PADDED];
+
+    static {
+        for (int length = 1; length <= BOARD_SIZE; ++length)
+            for (int cell = 0; cell < CELLS; ++cell)
+                if (cell % BOARD_SIZE + length <= BOARD_SIZE) ROW_STARTS[length][PAD + cell] = 1;
+    }
+
+    private static final byte MISS = (byte) CellState.Miss.ordinal();
+    private static final byte SUNK = (byte) CellState.Sunk.ordinal();
+
+    // 1 for Empty and Hit cells, 0 for Miss and Sunk cells and the padding
+    private final int[] free = new int[PADDED];
+
+    // Legal starts of the length being counted
+    private final int[] starts = new int[PADDED];
+
+    @Override
+    public void computeDensity(byte[] states, int[] multiplicity, int[] density) {
+        for (int cell = 0; cell < CELLS; ++cell) {
+            free[PAD + cell] = states[cell] != MISS && states[cell] != SUNK ? 1 : 0;
+            density[cell] = 0;
+        }
+
+        for (int length = 1; length <= BOARD_SIZE; ++length) {
+            int weight = multiplicity[length];
+            if (weight == 0) continue;
+
+            addPlacements(length, 1, ROW_STARTS[length], weight, density);
+            addPlacements(length, BOARD_SIZE, null, weight, density);
+        }
+    }
+
+    /**
+     * Add the placements of one length in one direction
+     *
+     * @param length
+     * @param step      1 along y, BOARD_SIZE along x
+     * @param rowStarts cells allowed as a start, null when the padding already stops the ship
+     * @param weight    number of alive ships of the length
+     * @param density
+     */
+    private void addPlacements(int length, int step, int[] rowStarts, int weight, int[] density) {
+        for (int cell = PAD; cell < PAD + CELLS; ++cell) {
+            int legal = rowStarts != null ? rowStarts[cell] : 1;
+            for (int l = 0; l < length; ++l) legal &= free[cell + l * step];
+            starts[cell] = legal;
+        }
+
+        for (int cell = PAD; cell < PAD + CELLS; ++cell) {
+            int covering = 0;
+            for (int l = 0; l < length; ++l) covering += starts[cell - l * step];
+            density[cell - PAD] += covering * weight;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+import java.awt.Point;
+
+/**
+ * One-ply lookahead choosing the hunting shot whose outcome is the hardest to predict, ships counted independently.
+ *
+ * getNextShot takes the cell covered by the most placements. This looks at the K densest empty cells instead and
+ * scores each by the entropy of its outcome, -p log p - (1 - p) log (1 - p), with the hit probability p taken from
+ * the placement counts of each alive length as if the ships were independent: p = 1 - product over ships of
+ * (1 - cover / placements). If p were the share of whole fleet configurations with a ship on the cell, this entropy
+ * would be the expected reduction in log configurations left by the shot. Independent ships may overlap, so the score
+ * only approximates that measure; the exact shares are what ExactField counts, on 10 x 10 boards and at about 25 ms
+ * a game, which is too slow for every hunting shot.
+ *
+ * The counts come from the density engine when it keeps them per length (Bitboard, and GridField on other boards),
+ * so a shot costs a few operations per candidate and alive length; Scan and the other engines count by scanning the
+ * board. A time budget caps the work per shot; when it runs out, the densest candidate is taken as getNextShot would.
+ *
+ * Only hunting shots go through the lookahead: while hits are being sunk, or once the last hit is all that is left,
+ * the shot is getNextShot's. An instance keeps buffers for one board size and is used by one bot at a time.
+ *
+ * Taking the candidate whose outcome is closest to a coin flip plays worse than the densest cell: on the same seeded
+ * games PairedEvaluation finds 0.13 more shots per game with 8 candidates. The densest cell is likelier to hit, and
+ * hits lead to sinking, which the entropy of one shot does not see.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class ShotLookahead {
+    public static final int DEFAULT_CANDIDATES = 8;
+
+    private final int boardSize;
+
+    // Number of densest cells evaluated
+    private final int candidates;
+
+    // Work allowed per shot, Long.MAX_VALUE for no limit
+    private final long budgetNanos;
+
+    // Candidate cells, densest first, and their density
+    private final int[] candidateCells;
+    private final double[] candidateDensity;
+
+    // Probability that no ship covers each candidate, the miss outcome, with the alive ships counted independently
+    private final double[] independentMiss;
+
+    // Placements of one length covering each candidate
+    private final int[] cover;
+
+    // Alive ships of each length
+    private final int[] multiplicity;
+
+    // Shots chosen by the lookahead, and those that differ from the densest cell
+    private long shots, changedShots;
+
+    /**
+     * Constructor for the default number of candidates and no time budget
+     *
+     * @param boardSize
+     */
+    public ShotLookahead(int boardSize) {
+        this(boardSize, DEFAULT_CANDIDATES, Long.MAX_VALUE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param boardSize
+     * @param candidates  number of densest cells to evaluate, at least 1
+     * @param budgetNanos work allowed per shot
+     */
+    public ShotLookahead(int boardSize, int candidates, long budgetNanos) {
+        if (candidates < 1) throw new IllegalArgumentException("Invalid number of candidates: " + candidates);
+        if (budgetNanos <= 0) throw new IllegalArgumentException("Invalid time budget: " + budgetNanos);
+
+        this.boardSize = boardSize;
+        this.candidates = candidates;
+        this.budgetNanos = budgetNanos;
+        this.candidateCells = new int[candidates];
+        this.candidateDensity = new double[candidates];
+        this.independentMiss = new double[candidates];
+        this.cover = new int[candidates];
+        this.multiplicity = new int[boardSize + 1];
+    }
+
+    /**
+     * Choose the next hunting shot of a field whose probabilities are up to date
+     *
+     * @param field
+     * @return
+     */
+    public Point chooseShot(VirtualField field) {
+        long start = System.nanoTime();
+
+        if (field.BOARD_SIZE != boardSize)
+            throw new IllegalArgumentException("Lookahead for a " + boardSize + " x " + boardSize + " board");
+
+        // Sinking, and the endgame guesses of getNextShot, stay as they are
+        if (!field.hitPoints.isEmpty() || field.getHitOrSunkCells() >= field.getMaxHits() - 1) return field.getNextShot();
+
+        int count = field.getDensestCells(candidateCells, candidateDensity, candidates);
+        if (count == 0 || candidateDensity[0] == 0) return field.getNextShot();
+
+        ++shots;
+        if (count == 1) return field.pointAt(candidateCells[0] / boardSize, candidateCells[0] % boardSize);
+
+        for (int length = 1; length <= boardSize; ++length) multiplicity[length] = 0;
+        for (int i = 0; i < field.aliveShips.size(); ++i) {
+            int length = field.aliveShips.get(i);
+            if (length >= 1 && length <= boardSize) ++multiplicity[length];
+        }
+
+        for (int i = 0; i < count; ++i) independentMiss[i] = 1;
+
+        for (int length = 1; length <= boardSize; ++length) {
+            if (multiplicity[length] == 0) continue;
+
+            if (System.nanoTime() - start > budgetNanos)
+                return field.pointAt(candidateCells[0] / boardSize, candidateCells[0] % boardSize);
+
+            int placements = field.countPlacements(length, candidateCells, count, cover);
+            if (placements == 0) continue;
+
+            for (int i = 0; i < count; ++i) {
+                double free = 1 - (double) cover[i] / placements;
+                for (int ship = 0; ship < multiplicity[length]; ++ship) independentMiss[i] *= free;
+            }
+        }
+
+        // The entropy of the outcome only falls as p moves away from 1/2, so the closest candidate gains the most.
+        // Ties go to the densest candidate
+        int best = 0;
+        double bestDistance = Math.abs(0.5 - independentMiss[0]);
+        for (int i = 1; i < count; ++i) {
+            double distance = Math.abs(0.5 - independentMiss[i]);
+            if (distance < bestDistance) {
+                best = i;
+                bestDistance = distance;
+            }
+        }
+
+        if (best != 0) ++changedShots;
+        return field.pointAt(candidateCells[best] / boardSize, candidateCells[best] % boardSize);
+    }
+
+    /**
+     * Returns the number of shots chosen by the lookahead
+     *
+     * @return
+     */
+    public long getShots() {
+        return shots;
+    }
+
+    /**
+     * Returns the number of shots where the lookahead chose another cell than the densest one
+     *
+     * @return
+     */
+    public long getChangedShots() {
+        return changedShots;
+    }
+}
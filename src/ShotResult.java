@@ -0,0 +1,20 @@
+/**
+ * Outcome of one shot, as answered by a GameOracle
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public enum ShotResult {
+    Miss,
+    Hit,
+    Sunk;
+
+    /**
+     * Returns whether a ship is at the cell
+     *
+     * @return
+     */
+    public boolean isHit() {
+        return this != Miss;
+    }
+}
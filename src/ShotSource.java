@@ -0,0 +1,5 @@
+public enum ShotSource {
+    Hunt,
+    Sink,
+    Book
+}
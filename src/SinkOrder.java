@@ -0,0 +1,14 @@
+/**
+ * Order in which the neighbours of a first hit are tried
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public enum SinkOrder {
+    // Densest neighbour first, ties to the last in neighbour order
+    Densest,
+    // Least dense neighbour first
+    Sparsest,
+    // Fixed order: (x, y - 1), (x, y + 1), (x + 1, y), then (x - 1, y)
+    Neighbour
+}
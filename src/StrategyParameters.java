@@ -0,0 +1,144 @@
+/**
+ * The hand-picked constants of the bot's strategy, as one vector that StrategyTuner can search.
+ *
+ * The diagonal skew multiplies the density of a checkerboard of cells whose four neighbours are empty, once the
+ * fleet is down to at most skewShipsLeft ships of at most the smallest length plus skewLengthSlack and no ship is
+ * being sunk. It used to run before updateProbability, which overwrote it, so the bot played as with a multiplier
+ * of 1; DEFAULT keeps that. Other multipliers apply in fixed point to 1 / VirtualField.SKEW_SCALE, since the densities
+ * of BoardLayout.Packed are ints; java StrategyParameters checks that a multiplier changes the shots.
+ *
+ * Parameters are written as "skew=1.5,ships=1,slack=0,sink=Densest"; missing keys keep their default.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class StrategyParameters {
+    // How the bot has always played
+    public static final StrategyParameters DEFAULT = new StrategyParameters(1, 1, 0, SinkOrder.Densest);
+
+    // Multiplier of the density of the skewed cells, 1 for no skew
+    public final double skewMultiplier;
+
+    // Largest number of alive ships for the skew to apply
+    public final int skewShipsLeft;
+
+    // Largest length of an alive ship for the skew to apply, above the smallest ship of the fleet
+    public final int skewLengthSlack;
+
+    // Order of the neighbours of a first hit
+    public final SinkOrder sinkOrder;
+
+    /**
+     * Constructor
+     *
+     * @param skewMultiplier  at least 0
+     * @param skewShipsLeft   at least 0, 0 for no skew
+     * @param skewLengthSlack at least 0
+     * @param sinkOrder
+     */
+    public StrategyParameters(double skewMultiplier, int skewShipsLeft, int skewLengthSlack, SinkOrder sinkOrder) {
+        if (!(skewMultiplier >= 0)) throw new IllegalArgumentException("Invalid skew multiplier: " + skewMultiplier);
+        if (skewShipsLeft < 0 || skewLengthSlack < 0)
+            throw new IllegalArgumentException("Invalid skew activation: " + skewShipsLeft + " ships, slack " + skewLengthSlack);
+
+        this.skewMultiplier = skewMultiplier;
+        this.skewShipsLeft = skewShipsLeft;
+        this.skewLengthSlack = skewLengthSlack;
+        this.sinkOrder = sinkOrder;
+    }
+
+    /**
+     * Parse parameters written by toString
+     *
+     * @param spec
+     * @return
+     */
+    public static StrategyParameters parse(String spec) {
+        double skewMultiplier = DEFAULT.skewMultiplier;
+        int skewShipsLeft = DEFAULT.skewShipsLeft;
+        int skewLengthSlack = DEFAULT.skewLengthSlack;
+        SinkOrder sinkOrder = DEFAULT.sinkOrder;
+
+        for (String entry : spec.split(",")) {
+            if (entry.isBlank()) continue;
+
+            String[] keyValue = entry.split("=", 2);
+            if (keyValue.length != 2) throw new IllegalArgumentException("Invalid parameter: " + entry);
+
+            String value = keyValue[1].trim();
+            switch (keyValue[0].trim()) {
+                case "skew" -> skewMultiplier = Double.parseDouble(value);
+                case "ships" -> skewShipsLeft = Integer.parseInt(value);
+                case "slack" -> skewLengthSlack = Integer.parseInt(value);
+                case "sink" -> sinkOrder = SinkOrder.valueOf(value);
+                default -> throw new IllegalArgumentException("Unknown parameter: " + keyValue[0]);
+            }
+        }
+
+        return new StrategyParameters(skewMultiplier, skewShipsLeft, skewLengthSlack, sinkOrder);
+    }
+
+    /**
+     * Check whether the skew applies to a fleet with these alive ships and no ship being sunk
+     *
+     * @param virtualField
+     * @return
+     */
+    public boolean isSkewActive(VirtualField virtualField) {
+        int alive = virtualField.aliveShips.size();
+        if (alive == 0 || alive > skewShipsLeft || !virtualField.hitPoints.isEmpty()) return false;
+
+        int maxLength = virtualField.getSmallestShip() + skewLengthSlack;
+        for (int i = 0; i < alive; ++i)
+            if (virtualField.aliveShips.get(i) > maxLength) return false;
+
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof StrategyParameters)) return false;
+
+        StrategyParameters other = (StrategyParameters) o;
+        return Double.compare(skewMultiplier, other.skewMultiplier) == 0 && skewShipsLeft == other.skewShipsLeft
+                && skewLengthSlack == other.skewLengthSlack && sinkOrder == other.sinkOrder;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((Double.hashCode(skewMultiplier) * 31 + skewShipsLeft) * 31 + skewLengthSlack) * 31 + sinkOrder.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "skew=" + skewMultiplier + ",ships=" + skewShipsLeft + ",slack=" + skewLengthSlack + ",sink=" + sinkOrder;
+    }
+
+    /**
+     * Play the same seeded games with DEFAULT and with other parameters, and fail if no game is played differently
+     *
+     * Usage: java StrategyParameters [games] [parameters]
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        StrategyParameters parameters = parse(args.length > 1 ? args[1] : "skew=1.2");
+
+        GameRunner current = new GameRunner(1, A6.MASTERSEED, 1);
+        GameRunner other = new GameRunner(1, A6.MASTERSEED, 1);
+        other.setParameters(parameters);
+
+        int changed = 0;
+        long difference = 0;
+        for (int game = 0; game < games; ++game) {
+            long seed = GameRunner.gameSeed(A6.MASTERSEED, game);
+            int shots = other.playGame(seed) - current.playGame(seed);
+            if (shots != 0) ++changed;
+            difference += shots;
+        }
+
+        if (changed == 0) throw new IllegalStateException(parameters + " plays like the default in all " + games + " games");
+        System.out.printf("%s - %d of %d games played differently, %+.4f shots per game\n", parameters, changed, games, (double) difference / games);
+    }
+}
@@ -0,0 +1,293 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Searches the strategy constants of the bot by successive halving.
+ *
+ * Every candidate set of StrategyParameters plays the first rung of games, the best 1 / eta of them by average shots
+ * go on to eta times as many games, and so on until one is left or the games reach the maximum. All candidates play
+ * the same seeded games, games 0, 1, 2... of the master seed, so they are compared on the same fleets and the
+ * luck of the layouts cancels out of the ranking. A candidate moving up a rung only plays the games it has not
+ * played yet. The games of a candidate are spread over a ForkJoin pool by GameRunner.
+ *
+ * The state of the search is written to a checkpoint file after every candidate, replaced in one move. A tuner
+ * started on an existing checkpoint carries on from it, so a long run loses at most one candidate's games when
+ * it is stopped.
+ *
+ * Checkpoint layout, one line each: "seed", "mode", "eta", "max", "rung" followed by their value, then per
+ * candidate "candidate alive games totalShots parameters".
+ *
+ * Usage: java StrategyTuner checkpoint [candidates] [first rung games] [max games] [threads] [search seed]
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class StrategyTuner {
+    private static final String HEADER = "# StrategyTuner checkpoint";
+
+    // Ranges of the random candidates
+    private static final double MAX_SKEW_MULTIPLIER = 3;
+    private static final int MAX_SKEW_SHIPS = 3;
+    private static final int MAX_SKEW_SLACK = 2;
+
+    private final long masterSeed;
+    private final ProbabilityMode probabilityMode;
+    private final int eta;
+    private final int maxGames;
+    private final Path checkpoint;
+    private final List<Candidate> candidates;
+
+    // Games every alive candidate plays in the current rung
+    private int rungGames;
+
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * A set of parameters and its results so far
+     */
+    public static final class Candidate {
+        public final StrategyParameters parameters;
+        private boolean alive = true;
+        private int games;
+        private long totalShots;
+
+        Candidate(StrategyParameters parameters) {
+            this.parameters = parameters;
+        }
+
+        public boolean isAlive() {
+            return alive;
+        }
+
+        public int getGames() {
+            return games;
+        }
+
+        public double averageShots() {
+            return games == 0 ? Double.NaN : (double) totalShots / games;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-50s %8d games %8.4f shots%s", parameters, games, averageShots(), alive ? "" : " (out)");
+        }
+    }
+
+    /**
+     * Constructor for a new search
+     *
+     * @param parameters      candidates, StrategyParameters.DEFAULT first to compare with the current bot
+     * @param masterSeed      seed of the games, see GameRunner.gameSeed
+     * @param probabilityMode
+     * @param firstRungGames  games of the first rung
+     * @param eta             factor between two rungs, at least 2
+     * @param maxGames        games of the last rung
+     * @param checkpoint      file the search is saved to, null for none
+     */
+    public StrategyTuner(List<StrategyParameters> parameters, long masterSeed, ProbabilityMode probabilityMode,
+                         int firstRungGames, int eta, int maxGames, Path checkpoint) {
+        if (parameters.isEmpty()) throw new IllegalArgumentException("No candidate");
+        if (firstRungGames < 1 || eta < 2 || maxGames < firstRungGames)
+            throw new IllegalArgumentException("Invalid rungs: " + firstRungGames + " games, eta " + eta + ", max " + maxGames);
+
+        this.masterSeed = masterSeed;
+        this.probabilityMode = probabilityMode;
+        this.eta = eta;
+        this.maxGames = maxGames;
+        this.checkpoint = checkpoint;
+        this.candidates = new ArrayList<>();
+        for (StrategyParameters p : parameters) candidates.add(new Candidate(p));
+        this.rungGames = firstRungGames;
+    }
+
+    /**
+     * Carry on a search from its checkpoint
+     *
+     * @param checkpoint
+     * @return
+     * @throws IOException
+     */
+    public static StrategyTuner load(Path checkpoint) throws IOException {
+        List<String> lines = Files.readAllLines(checkpoint, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(HEADER)) throw new IllegalArgumentException("Not a tuner checkpoint");
+
+        long masterSeed = 0;
+        ProbabilityMode probabilityMode = ProbabilityMode.Bitboard;
+        int eta = 0, maxGames = 0, rungGames = 0;
+        List<StrategyParameters> parameters = new ArrayList<>();
+        List<String[]> results = new ArrayList<>();
+
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(" ");
+            switch (fields[0]) {
+                case "seed" -> masterSeed = Long.parseLong(fields[1]);
+                case "mode" -> probabilityMode = ProbabilityMode.valueOf(fields[1]);
+                case "eta" -> eta = Integer.parseInt(fields[1]);
+                case "max" -> maxGames = Integer.parseInt(fields[1]);
+                case "rung" -> rungGames = Integer.parseInt(fields[1]);
+                case "candidate" -> {
+                    parameters.add(StrategyParameters.parse(fields[4]));
+                    results.add(fields);
+                }
+                default -> throw new IllegalArgumentException("Invalid checkpoint line: " + line);
+            }
+        }
+
+        StrategyTuner tuner = new StrategyTuner(parameters, masterSeed, probabilityMode, rungGames, eta, maxGames, checkpoint);
+        for (int i = 0; i < results.size(); ++i) {
+            Candidate candidate = tuner.candidates.get(i);
+            candidate.alive = results.get(i)[1].equals("1");
+            candidate.games = Integer.parseInt(results.get(i)[2]);
+            candidate.totalShots = Long.parseLong(results.get(i)[3]);
+        }
+
+        return tuner;
+    }
+
+    /**
+     * Draw random candidates, StrategyParameters.DEFAULT first
+     *
+     * @param count
+     * @param seed
+     * @return
+     */
+    public static List<StrategyParameters> sample(int count, long seed) {
+        // Multipliers on a grid of 0.05 so that they read well in the checkpoint
+        int distinct = ((int) Math.round((MAX_SKEW_MULTIPLIER - 1) * 20) + 1) * MAX_SKEW_SHIPS * (MAX_SKEW_SLACK + 1) * SinkOrder.values().length;
+        if (count < 1 || count > distinct) throw new IllegalArgumentException("Between 1 and " + distinct + " candidates");
+
+        SplittableRandom random = new SplittableRandom(seed);
+        List<StrategyParameters> parameters = new ArrayList<>();
+        parameters.add(StrategyParameters.DEFAULT);
+
+        while (parameters.size() < count) {
+            double skewMultiplier = Math.round(random.nextDouble(1, MAX_SKEW_MULTIPLIER) * 20) / 20.0;
+            StrategyParameters candidate = new StrategyParameters(skewMultiplier, random.nextInt(1, MAX_SKEW_SHIPS + 1),
+                    random.nextInt(MAX_SKEW_SLACK + 1), SinkOrder.values()[random.nextInt(SinkOrder.values().length)]);
+            if (!parameters.contains(candidate)) parameters.add(candidate);
+        }
+
+        return parameters;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public List<Candidate> getCandidates() {
+        return candidates;
+    }
+
+    /**
+     * Run the search to the end
+     *
+     * @param log receives the standings after every rung, null for none
+     * @return the best candidate
+     * @throws IOException
+     */
+    public Candidate run(PrintStream log) throws IOException {
+        while (true) {
+            List<Candidate> alive = new ArrayList<>();
+            for (Candidate candidate : candidates) if (candidate.alive) alive.add(candidate);
+
+            for (Candidate candidate : alive) play(candidate, rungGames);
+
+            // Same games for everyone, so the totals rank them; ties keep the earlier candidate
+            alive.sort(Comparator.comparingLong(c -> c.totalShots));
+            if (log != null) {
+                log.printf("Rung of %d games, %d candidates\n", rungGames, alive.size());
+                for (Candidate candidate : alive.subList(0, Math.min(alive.size(), 5))) log.println("  " + candidate);
+            }
+
+            if (alive.size() == 1 || rungGames >= maxGames) return alive.get(0);
+
+            for (Candidate candidate : alive.subList((alive.size() + eta - 1) / eta, alive.size())) candidate.alive = false;
+            rungGames = (int) Math.min(maxGames, (long) rungGames * eta);
+            save();
+        }
+    }
+
+    /**
+     * Play the games a candidate has not played yet up to a number of games, then save the checkpoint
+     *
+     * @param candidate
+     * @param games
+     * @throws IOException
+     */
+    public void play(Candidate candidate, int games) throws IOException {
+        if (candidate.games >= games) return;
+
+        GameRunner runner = new GameRunner(games - candidate.games, masterSeed, parallelism, null, probabilityMode);
+        runner.setFirstGame(candidate.games);
+        runner.setParameters(candidate.parameters);
+        candidate.totalShots += runner.run().totalShots;
+        candidate.games = games;
+        save();
+    }
+
+    /**
+     * Write the checkpoint, replacing the previous one in one move
+     *
+     * @throws IOException
+     */
+    private void save() throws IOException {
+        if (checkpoint == null) return;
+
+        StringBuilder builder = new StringBuilder(HEADER).append('\n');
+        builder.append("seed ").append(masterSeed).append('\n');
+        builder.append("mode ").append(probabilityMode).append('\n');
+        builder.append("eta ").append(eta).append('\n');
+        builder.append("max ").append(maxGames).append('\n');
+        builder.append("rung ").append(rungGames).append('\n');
+        for (Candidate candidate : candidates)
+            builder.append("candidate ").append(candidate.alive ? 1 : 0).append(' ').append(candidate.games).append(' ')
+                    .append(candidate.totalShots).append(' ').append(candidate.parameters).append('\n');
+
+        Path temporary = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        Files.writeString(temporary, builder, StandardCharsets.UTF_8);
+        Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java StrategyTuner checkpoint [candidates] [first rung games] [max games] [threads] [search seed]");
+            return;
+        }
+
+        Path checkpoint = Path.of(args[0]);
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int firstRungGames = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        int maxGames = args.length > 3 ? Integer.parseInt(args[3]) : 200_000;
+        int parallelism = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+        long searchSeed = args.length > 5 ? Long.parseLong(args[5]) : A6.MASTERSEED;
+
+        StrategyTuner tuner;
+        if (Files.exists(checkpoint)) {
+            tuner = load(checkpoint);
+            System.out.println("Resuming from " + checkpoint);
+        } else {
+            tuner = new StrategyTuner(sample(count, searchSeed), A6.MASTERSEED, ProbabilityMode.Bitboard,
+                    firstRungGames, 3, maxGames, checkpoint);
+        }
+        tuner.setParallelism(parallelism);
+
+        long start = System.nanoTime();
+        Candidate best = tuner.run(System.out);
+        Candidate current = tuner.getCandidates().get(0);
+
+        // Compare with the current bot on the same games
+        tuner.play(current, best.getGames());
+
+        System.out.printf("Best: %s\n", best);
+        System.out.printf("Current bot: %s\n", current);
+        System.out.printf("%.1f s\n", (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,504 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a trace file written by TraceWriter and replays its games.
+ *
+ * The file is memory-mapped in windows of up to WINDOW_BYTES, so traces larger than 2 GB can be read, and each
+ * block is inflated into a reused buffer. forEachGame decodes the shots of every game; replay additionally plays
+ * each game again with a fresh DrInvisible_Bot, built by a GameRunner with the configuration of the header, answering
+ * its shots from the trace, and checks that the bot takes the same shots for the same reasons. The games are
+ * independent, so they are replayed on several threads while the calling thread decodes the next ones. A game
+ * diverges at its first differing shot; the rest of a diverged game is not compared, since the recorded answers no
+ * longer apply.
+ *
+ * Decoding runs at about 6.5 million shots per second on one core. Replaying is bound by the bot, which takes
+ * 160000 to 340000 shots per second per core in Bitboard mode depending on the lookahead and sinking.
+ *
+ * Usage: java TraceReplay file [verify] [threads]
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class TraceReplay implements Closeable {
+    // Largest part of the file mapped at once
+    private static final long WINDOW_BYTES = 1L << 30;
+
+    // Games decoded before they are replayed together
+    private static final int GAMES_PER_WAVE = 4096;
+
+    // Games replayed by one task
+    private static final int GAMES_PER_TASK = 16;
+
+    /**
+     * Receives the games of a trace
+     */
+    public interface GameVisitor {
+        /**
+         * Called once per game. The shots array is reused for the next game
+         *
+         * @param seed  seed of the game, 0 if unknown
+         * @param shots encoded shots, see GameTrace
+         * @param count number of shots
+         */
+        void visitGame(long seed, long[] shots, int count);
+    }
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final long dataStart;
+
+    private final ProbabilityMode probabilityMode;
+    private final int boardSize;
+    private final int[] shipSizes;
+    private final StrategyParameters parameters;
+    private final int lookaheadCandidates;
+    private final boolean clusterSinking;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    private final Inflater inflater = new Inflater();
+    private byte[] compressed = new byte[TraceWriter.BLOCK_BYTES];
+    private byte[] block = new byte[TraceWriter.BLOCK_BYTES];
+    private long[] shots = new long[256];
+
+    // Read position inside the current block
+    private int position;
+
+    /**
+     * Open a trace file
+     *
+     * @param file
+     * @throws IOException
+     */
+    public TraceReplay(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        fileSize = channel.size();
+
+        MappedByteBuffer header = fileSize >= 20 ? window(0, 20) : null;
+        if (header == null || header.getInt(0) != TraceWriter.MAGIC || header.getInt(4) != TraceWriter.VERSION) {
+            channel.close();
+            throw new IllegalArgumentException("Not a trace file");
+        }
+
+        try {
+            probabilityMode = ProbabilityMode.values()[header.getInt(8)];
+            boardSize = header.getInt(12);
+            shipSizes = new int[header.getInt(16)];
+            long offset = 20 + 4L * shipSizes.length;
+            if (fileSize < offset + 12) throw new IllegalArgumentException("Truncated trace header");
+
+            MappedByteBuffer sizes = window(20, 4 * shipSizes.length + 12);
+            for (int i = 0; i < shipSizes.length; ++i) shipSizes[i] = sizes.getInt((int) (20 + 4L * i - windowStart));
+            lookaheadCandidates = sizes.getInt((int) (offset - windowStart));
+            clusterSinking = sizes.getInt((int) (offset - windowStart) + 4) != 0;
+            byte[] parameterBytes = new byte[sizes.getInt((int) (offset - windowStart) + 8)];
+            offset += 12;
+            if (fileSize < offset + parameterBytes.length) throw new IllegalArgumentException("Truncated trace header");
+
+            window(offset, parameterBytes.length).get((int) (offset - windowStart), parameterBytes);
+            parameters = StrategyParameters.parse(new String(parameterBytes, StandardCharsets.UTF_8));
+            dataStart = offset + parameterBytes.length;
+        } catch (RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public ProbabilityMode getProbabilityMode() {
+        return probabilityMode;
+    }
+
+    public int getBoardSize() {
+        return boardSize;
+    }
+
+    public int[] getShipSizes() {
+        return shipSizes.clone();
+    }
+
+    public StrategyParameters getParameters() {
+        return parameters;
+    }
+
+    public int getLookaheadCandidates() {
+        return lookaheadCandidates;
+    }
+
+    public boolean isClusterSinking() {
+        return clusterSinking;
+    }
+
+    /**
+     * Decode every game of the trace
+     *
+     * @param visitor
+     * @return the number of games
+     * @throws IOException
+     */
+    public long forEachGame(GameVisitor visitor) throws IOException {
+        long games = 0;
+
+        for (long offset = dataStart; offset < fileSize; ) {
+            MappedByteBuffer blockHeader = window(offset, TraceWriter.BLOCK_HEADER_BYTES);
+            int blockLength = blockHeader.getInt((int) (offset - windowStart));
+            int compressedLength = blockHeader.getInt((int) (offset - windowStart) + 4);
+            offset += TraceWriter.BLOCK_HEADER_BYTES;
+
+            inflate(offset, compressedLength, blockLength);
+            offset += compressedLength;
+
+            for (position = 0; position < blockLength; ++games) {
+                long seed = getVarint();
+                int count = (int) getVarint();
+                int end = (int) getVarint() + position;
+
+                if (shots.length < count) shots = new long[Math.max(count, shots.length * 2)];
+                for (int i = 0; i < count; ++i) shots[i] = getVarint();
+                if (position != end) throw new IllegalStateException("Corrupt game record at offset " + offset);
+
+                visitor.visitGame(seed, shots, count);
+            }
+        }
+
+        return games;
+    }
+
+    /**
+     * Play every game again with the bots of the recorded configuration and compare their shots with the recorded ones
+     *
+     * @return games whose shots all matched and games that diverged, in that order
+     * @throws IOException
+     */
+    public long[] replay() throws IOException {
+        return replay(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Play every game again on several threads. The games are decoded on the calling thread in waves of
+     * GAMES_PER_WAVE, and the games of a wave are replayed across a ForkJoin pool, each with its own bot
+     *
+     * @param parallelism number of threads replaying games
+     * @return games whose shots all matched and games that diverged, in that order
+     * @throws IOException
+     */
+    public long[] replay(int parallelism) throws IOException {
+        GameRunner runner = new GameRunner(0, 0, 1, null, probabilityMode);
+        runner.setBoard(boardSize, shipSizes);
+        runner.setParameters(parameters);
+        runner.setLookahead(lookaheadCandidates, Long.MAX_VALUE);
+        runner.setClusterSinking(clusterSinking);
+
+        Wave wave = new Wave(runner);
+        long[] result = new long[2];
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            forEachGame((seed, recorded, count) -> {
+                wave.add(seed, recorded, count);
+                if (wave.games == GAMES_PER_WAVE) wave.replay(pool, result);
+            });
+            wave.replay(pool, result);
+        } finally {
+            pool.shutdown();
+        }
+
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        channel.close();
+    }
+
+    /**
+     * Returns a mapped window holding [offset, offset + length), remapping only when the range leaves the current one
+     */
+    private MappedByteBuffer window(long offset, int length) throws IOException {
+        if (window == null || offset < windowStart || offset + length > windowStart + window.capacity()) {
+            long size = Math.min(Math.max(WINDOW_BYTES, length), fileSize - offset);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+            window.order(ByteOrder.BIG_ENDIAN);
+            windowStart = offset;
+        }
+
+        return window;
+    }
+
+    private void inflate(long offset, int compressedLength, int blockLength) throws IOException {
+        if (compressed.length < compressedLength) compressed = new byte[compressedLength];
+        if (block.length < blockLength) block = new byte[blockLength];
+
+        window(offset, compressedLength).get((int) (offset - windowStart), compressed, 0, compressedLength);
+
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedLength);
+        try {
+            int inflated = 0;
+            while (inflated < blockLength && !inflater.finished()) {
+                int count = inflater.inflate(block, inflated, blockLength - inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                inflated += count;
+            }
+
+            if (inflated != blockLength) throw new IOException("Truncated block at offset " + offset);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block at offset " + offset, e);
+        }
+    }
+
+    private long getVarint() {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = block[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    /**
+     * Games decoded from the trace and waiting to be replayed. The shot arrays are kept from one wave to the next
+     */
+    private final class Wave {
+        private final GameRunner runner;
+
+        private final long[] seeds = new long[GAMES_PER_WAVE];
+        private final long[][] shots = new long[GAMES_PER_WAVE][];
+        private final int[] counts = new int[GAMES_PER_WAVE];
+        private int games;
+
+        // One replay game and trace per worker thread
+        private final ThreadLocal<ReplayGame> replayGames = ThreadLocal.withInitial(() -> new ReplayGame(boardSize, shipSizes));
+        private final ThreadLocal<GameTrace> traces = ThreadLocal.withInitial(GameTrace::new);
+
+        Wave(GameRunner runner) {
+            this.runner = runner;
+        }
+
+        void add(long seed, long[] recorded, int count) {
+            if (shots[games] == null || shots[games].length < count) shots[games] = new long[Math.max(count, 128)];
+            System.arraycopy(recorded, 0, shots[games], 0, count);
+            seeds[games] = seed;
+            counts[games++] = count;
+        }
+
+        /**
+         * Replay the games of the wave and empty it
+         *
+         * @param pool
+         * @param result receives the identical and diverged games
+         */
+        void replay(ForkJoinPool pool, long[] result) {
+            if (games == 0) return;
+
+            long identical = pool.invoke(new ReplayTask(0, games));
+            result[0] += identical;
+            result[1] += games - identical;
+            games = 0;
+        }
+
+        /**
+         * Replay one game of the wave
+         *
+         * @param index
+         * @return whether the bot took the recorded shots
+         */
+        boolean replayGame(int index) {
+            ReplayGame game = replayGames.get();
+            GameTrace trace = traces.get();
+
+            game.reset(shots[index], counts[index]);
+            DrInvisible_Bot bot = runner.createBot(game, seeds[index]);
+            trace.begin(seeds[index]);
+            bot.setTrace(trace);
+
+            while (!game.allSunk()) bot.fireShot();
+
+            return game.matches(trace);
+        }
+
+        /**
+         * Task replaying a range of the games of a wave, splitting in half until the range is small enough
+         */
+        private final class ReplayTask extends RecursiveTask<Long> {
+            private static final long serialVersionUID = 1L;
+
+            private final int from;
+            private final int to;
+
+            ReplayTask(int from, int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected Long compute() {
+                if (to - from <= GAMES_PER_TASK) {
+                    long identical = 0;
+                    for (int index = from; index < to; ++index)
+                        if (replayGame(index)) ++identical;
+                    return identical;
+                }
+
+                int middle = (from + to) >>> 1;
+                ReplayTask left = new ReplayTask(from, middle);
+                left.fork();
+                long right = new ReplayTask(middle, to).compute();
+                return left.join() + right;
+            }
+        }
+    }
+
+    /**
+     * Game answering shots from a recorded trace. Once the bot shoots another cell than the recorded one, the game
+     * ends so that the bot is not fed answers for cells it did not shoot
+     */
+    private static final class ReplayGame implements BattleshipGame {
+        private final int boardSize;
+        private final int[] shipSizes;
+
+        private long[] recorded;
+        private int count;
+
+        // Shots of the replay, decoded from its trace
+        private long[] replayed = new long[256];
+        private int next;
+        private int shipsSunk;
+        private boolean diverged;
+
+        ReplayGame(int boardSize, int[] shipSizes) {
+            this.boardSize = boardSize;
+            this.shipSizes = shipSizes;
+        }
+
+        void reset(long[] recorded, int count) {
+            this.recorded = recorded;
+            this.count = count;
+            this.next = 0;
+            this.shipsSunk = 0;
+            this.diverged = false;
+        }
+
+        /**
+         * Check the shots the bot took during the replay against the recorded ones
+         *
+         * @param trace shots of the replay
+         * @return
+         */
+        boolean matches(GameTrace trace) {
+            if (diverged || trace.getShots() != count) return false;
+
+            if (replayed.length < count) replayed = new long[Math.max(count, replayed.length * 2)];
+
+            byte[] bytes = trace.getBytes();
+            for (int i = 0, position = 0; i < count; ++i) {
+                long value = 0;
+                for (int shift = 0; ; shift += 7) {
+                    byte b = bytes[position++];
+                    value |= (long) (b & 0x7F) << shift;
+                    if (b >= 0) break;
+                }
+                replayed[i] = value;
+            }
+
+            return Arrays.equals(replayed, 0, count, recorded, 0, count);
+        }
+
+        @Override
+        public boolean shoot(int x, int y) {
+            long shot = recorded[next++];
+            if (GameTrace.shotCell(shot) != x * boardSize + y) {
+                diverged = true;
+                return false;
+            }
+
+            if (GameTrace.shotSunk(shot)) ++shipsSunk;
+            return GameTrace.shotHit(shot);
+        }
+
+        @Override
+        public ShotResult fire(int x, int y) {
+            if (!shoot(x, y)) return ShotResult.Miss;
+            return GameTrace.shotSunk(recorded[next - 1]) ? ShotResult.Sunk : ShotResult.Hit;
+        }
+
+        @Override
+        public int numberOfShipsSunk() {
+            return shipsSunk;
+        }
+
+        @Override
+        public boolean allSunk() {
+            return diverged || next == count || shipsSunk == shipSizes.length;
+        }
+
+        @Override
+        public int totalShotsTaken() {
+            return next;
+        }
+
+        @Override
+        public int[] shipSizes() {
+            return shipSizes;
+        }
+
+        @Override
+        public int boardSize() {
+            return boardSize;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java TraceReplay file [verify] [threads]");
+            return;
+        }
+
+        try (TraceReplay replay = new TraceReplay(Path.of(args[0]))) {
+            System.out.printf("%s: %s, %d x %d board, fleet %s\n", args[0], replay.getProbabilityMode(),
+                    replay.getBoardSize(), replay.getBoardSize(), Arrays.toString(replay.getShipSizes()));
+            System.out.printf("%s, lookahead %d, %s sinking\n", replay.getParameters(), replay.getLookaheadCandidates(),
+                    replay.isClusterSinking() ? "cluster" : "stack");
+
+            long[] totals = new long[ShotSource.values().length + 2];
+            long start = System.nanoTime();
+            long games = replay.forEachGame((seed, shots, count) -> {
+                for (int i = 0; i < count; ++i) {
+                    ++totals[GameTrace.shotSource(shots[i]).ordinal()];
+                    if (GameTrace.shotHit(shots[i])) ++totals[totals.length - 2];
+                    if (GameTrace.shotSunk(shots[i])) ++totals[totals.length - 1];
+                }
+            });
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            long shots = 0;
+            for (ShotSource source : ShotSource.values()) shots += totals[source.ordinal()];
+            System.out.printf("%d games, %d shots (%.2f per game), %d hits, %d sunk\n", games, shots,
+                    games == 0 ? 0 : (double) shots / games, totals[totals.length - 2], totals[totals.length - 1]);
+            System.out.printf("%d hunt, %d sink, %d book shots - decoded %.0f shots/sec\n", totals[ShotSource.Hunt.ordinal()],
+                    totals[ShotSource.Sink.ordinal()], totals[ShotSource.Book.ordinal()], shots / seconds);
+
+            if (args.length > 1 && args[1].equals("verify")) {
+                start = System.nanoTime();
+                int parallelism = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+                long[] result = replay.replay(parallelism);
+                seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("Replayed %d games on %d threads: %d identical, %d diverged - %.0f shots/sec\n",
+                        result[0] + result[1], parallelism, result[0], result[1], shots / seconds);
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Streams finished GameTraces into a block-compressed trace file.
+ *
+ * Games are appended to an in-memory block; once the block holds BLOCK_BYTES it is deflated and written to the file
+ * channel in one call. Bots on several threads can share a writer: appending a game is synchronized, and a game is
+ * always written whole, so the games of a file are complete but in the order they finished.
+ *
+ * The header holds what TraceReplay needs to build the same bots again: the probability mode, the board, the fleet,
+ * the strategy parameters, the lookahead and the sinking. GameRunner.run refuses to trace with the options a
+ * replay could not reproduce.
+ *
+ * File layout (big endian): int magic, int version, int ProbabilityMode ordinal, int board size, int ship count,
+ * int per ship size, int lookahead candidates (0 for none), int 1 for cluster sinking or 0, int byte count and the
+ * UTF-8 bytes of StrategyParameters.toString, then blocks of int uncompressed length, int compressed length and the
+ * deflated bytes. A block holds whole games, each a varint seed, varint shot count, varint byte count and the shots
+ * of GameTrace.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class TraceWriter implements Closeable {
+    static final int MAGIC = 0x42545231;
+    static final int VERSION = 2;
+
+    // Uncompressed size at which a block is flushed
+    static final int BLOCK_BYTES = 1 << 16;
+
+    // Size of the length fields before each block
+    static final int BLOCK_HEADER_BYTES = 8;
+
+    // Bits of a game position holding the offset of the game in its block
+    public static final int POSITION_BITS = 24;
+
+    private final FileChannel channel;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    // Games not flushed yet
+    private byte[] block = new byte[BLOCK_BYTES + 1024];
+    private int blockLength;
+
+    // Deflated block, with room for the block header
+    private byte[] compressed = new byte[BLOCK_HEADER_BYTES + BLOCK_BYTES + 1024];
+
+    private long games;
+    private long shots;
+    private long bytesWritten;
+
+    /**
+     * Create or truncate a trace file
+     *
+     * @param file
+     * @param probabilityMode     mode of the bots being traced
+     * @param boardSize
+     * @param shipSizes
+     * @param parameters          strategy constants of the bots
+     * @param lookaheadCandidates densest cells evaluated by the lookahead of the bots, without a time budget, 0 for none
+     * @param clusterSinking      whether the bots sink ships with a ClusterSinkSolver
+     * @throws IOException
+     */
+    public TraceWriter(Path file, ProbabilityMode probabilityMode, int boardSize, int[] shipSizes,
+                       StrategyParameters parameters, int lookaheadCandidates, boolean clusterSinking) throws IOException {
+        byte[] configuration = configuration(probabilityMode, boardSize, shipSizes, parameters, lookaheadCandidates, clusterSinking);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        ByteBuffer header = ByteBuffer.allocate(8 + configuration.length).order(ByteOrder.BIG_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).put(configuration);
+        header.flip();
+        write(header);
+    }
+
+    /**
+     * Encode the configuration of a run as it follows the magic and version in the header. ResultStore keeps the
+     * same bytes, to refuse resuming a campaign with other bots
+     *
+     * @return
+     */
+    static byte[] configuration(ProbabilityMode probabilityMode, int boardSize, int[] shipSizes, StrategyParameters parameters,
+                                int lookaheadCandidates, boolean clusterSinking) {
+        byte[] parameterBytes = parameters.toString().getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer configuration = ByteBuffer.allocate(4 * (6 + shipSizes.length) + parameterBytes.length).order(ByteOrder.BIG_ENDIAN);
+        configuration.putInt(probabilityMode.ordinal()).putInt(boardSize).putInt(shipSizes.length);
+        for (int size : shipSizes) configuration.putInt(size);
+        configuration.putInt(lookaheadCandidates).putInt(clusterSinking ? 1 : 0).putInt(parameterBytes.length).put(parameterBytes);
+        return configuration.array();
+    }
+
+    /**
+     * Append a finished game, and set its position on the trace: the file offset of its block, where the block will
+     * be written when flushed, shifted left by POSITION_BITS, plus its offset in the uncompressed block
+     *
+     * @param trace
+     * @throws IOException
+     */
+    public synchronized void write(GameTrace trace) throws IOException {
+        int needed = blockLength + 30 + trace.getLength();
+        if (needed > block.length) block = Arrays.copyOf(block, Math.max(needed, block.length * 2));
+
+        trace.setPosition(bytesWritten << POSITION_BITS | blockLength);
+
+        blockLength = putVarint(block, blockLength, trace.getSeed());
+        blockLength = putVarint(block, blockLength, trace.getShots());
+        blockLength = putVarint(block, blockLength, trace.getLength());
+        System.arraycopy(trace.getBytes(), 0, block, blockLength, trace.getLength());
+        blockLength += trace.getLength();
+
+        ++games;
+        shots += trace.getShots();
+
+        if (blockLength >= BLOCK_BYTES) flush();
+    }
+
+    /**
+     * Deflate and write the current block, if it holds any game
+     *
+     * @throws IOException
+     */
+    public synchronized void flush() throws IOException {
+        if (blockLength == 0) return;
+
+        // Deflated data can be slightly larger than its input
+        int bound = BLOCK_HEADER_BYTES + blockLength + blockLength / 1000 + 64;
+        if (compressed.length < bound) compressed = new byte[bound];
+
+        deflater.reset();
+        deflater.setInput(block, 0, blockLength);
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+            if (BLOCK_HEADER_BYTES + compressedLength == compressed.length) compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            compressedLength += deflater.deflate(compressed, BLOCK_HEADER_BYTES + compressedLength, compressed.length - BLOCK_HEADER_BYTES - compressedLength);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(compressed, 0, BLOCK_HEADER_BYTES + compressedLength).order(ByteOrder.BIG_ENDIAN);
+        buffer.putInt(0, blockLength).putInt(4, compressedLength);
+        write(buffer);
+
+        blockLength = 0;
+    }
+
+    public synchronized long getGames() {
+        return games;
+    }
+
+    public synchronized long getShots() {
+        return shots;
+    }
+
+    /**
+     * Returns the size of the file so far, header and flushed blocks
+     *
+     * @return
+     */
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            deflater.end();
+            channel.close();
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        bytesWritten += buffer.remaining();
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    /**
+     * Write an unsigned varint
+     *
+     * @return the position after the varint
+     */
+    static int putVarint(byte[] bytes, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            bytes[position++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        bytes[position++] = (byte) value;
+        return position;
+    }
+}
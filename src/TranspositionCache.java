@@ -0,0 +1,217 @@
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of density maps keyed by board state, shared by every bot of a run.
+ *
+ * Games often reach the same position (same Hit/Miss/Sunk cells and same alive ships), especially early on, and
+ * for a given density engine the heat map of a position is always the same. Positions are identified by a Zobrist
+ * hash: VirtualField XORs a random key per (cell, state) in and out as cells change, and the alive ships are hashed
+ * when the cache is consulted.
+ *
+ * The table is set-associative: a hash selects a bucket of WAYS entries, and a full bucket evicts with CLOCK (the
+ * hand skips and clears entries used since it last passed). Buckets are guarded by striped locks so parallel game
+ * workers rarely wait on each other. Nothing is allocated after construction.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class TranspositionCache {
+    // The number of cells on the board
+    public static final int CELLS = 100;
+
+    // Entries per bucket
+    private static final int WAYS = 8;
+
+    // Number of locks guarding the buckets
+    private static final int STRIPES = 64;
+
+    // Approximate bytes used per entry: hash, density map and flags
+    private static final int ENTRY_BYTES = 8 + 4 * CELLS + 2;
+
+    // Zobrist keys per cell and CellState ordinal; Empty is 0 so that an empty board hashes to 0
+    private static final long[][] CELL_KEYS = new long[CELLS][CellState.values().length];
+
+    // Zobrist keys per ship length and occurrence of that length
+    private static final long[][] FLEET_KEYS = new long[16][16];
+
+    static {
+        long seed = 0x2545F4914F6CDD1DL;
+        for (int cell = 0; cell < CELLS; ++cell)
+            for (int state = 1; state < CellState.values().length; ++state) CELL_KEYS[cell][state] = seed = GameRunner.gameSeed(seed, cell);
+
+        for (int length = 0; length < 16; ++length)
+            for (int occurrence = 0; occurrence < 16; ++occurrence) FLEET_KEYS[length][occurrence] = seed = GameRunner.gameSeed(seed, length);
+    }
+
+    private final ProbabilityMode probabilityMode;
+
+    private final int buckets;
+
+    private final long[] hashes;
+
+    // Density maps, CELLS ints per entry
+    private final int[] densities;
+
+    private final boolean[] occupied;
+
+    // CLOCK reference bits
+    private final boolean[] referenced;
+
+    // CLOCK hand of each bucket
+    private final byte[] hands;
+
+    private final Object[] locks = new Object[STRIPES];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructor for a cache using at most about maxBytes
+     *
+     * @param probabilityMode engine the cached density maps come from
+     * @param maxBytes        memory cap of the cache
+     */
+    public TranspositionCache(ProbabilityMode probabilityMode, long maxBytes) {
+        long entries = maxBytes / ENTRY_BYTES;
+        if (entries < WAYS) throw new IllegalArgumentException("Memory cap too small: " + maxBytes);
+        if (entries * CELLS > Integer.MAX_VALUE) throw new IllegalArgumentException("Memory cap too large: " + maxBytes);
+
+        this.probabilityMode = probabilityMode;
+        this.buckets = (int) (entries / WAYS);
+        this.hashes = new long[buckets * WAYS];
+        this.densities = new int[buckets * WAYS * CELLS];
+        this.occupied = new boolean[buckets * WAYS];
+        this.referenced = new boolean[buckets * WAYS];
+        this.hands = new byte[buckets];
+        for (int i = 0; i < STRIPES; ++i) locks[i] = new Object();
+    }
+
+    /**
+     * Zobrist key of a cell in a state
+     *
+     * @param cell  x * 10 + y
+     * @param state
+     * @return
+     */
+    public static long cellKey(int cell, CellState state) {
+        return CELL_KEYS[cell][state.ordinal()];
+    }
+
+    /**
+     * Zobrist hash of the alive ships, independent of their order in the list
+     *
+     * @param aliveShips
+     * @return
+     */
+    public static long fleetHash(List<Integer> aliveShips) {
+        long hash = 0;
+        for (int i = 0; i < aliveShips.size(); ++i) {
+            int length = aliveShips.get(i);
+            if (length < 0 || length > 15) continue;
+
+            // The key depends on how many ships of the same length came before, so the order does not matter
+            int occurrence = 0;
+            for (int j = 0; j < i; ++j) if (aliveShips.get(j) == length) ++occurrence;
+            hash ^= FLEET_KEYS[length][Math.min(occurrence, 15)];
+        }
+
+        return hash;
+    }
+
+    /**
+     * The probability mode the cached density maps come from. A bot may only use a cache of its own mode
+     *
+     * @return
+     */
+    public ProbabilityMode getProbabilityMode() {
+        return probabilityMode;
+    }
+
+    /**
+     * Copy the density map of a position into a buffer
+     *
+     * @param hash
+     * @param density destination of CELLS ints
+     * @return true if the position was in the cache
+     */
+    public boolean get(long hash, int[] density) {
+        int bucket = bucketOf(hash);
+
+        synchronized (locks[bucket % STRIPES]) {
+            for (int way = 0, entry = bucket * WAYS; way < WAYS; ++way, ++entry) {
+                if (occupied[entry] && hashes[entry] == hash) {
+                    referenced[entry] = true;
+                    System.arraycopy(densities, entry * CELLS, density, 0, CELLS);
+                    hits.increment();
+                    return true;
+                }
+            }
+        }
+
+        misses.increment();
+        return false;
+    }
+
+    /**
+     * Store the density map of a position, evicting an entry of its bucket if needed
+     *
+     * @param hash
+     * @param density CELLS ints
+     */
+    public void put(long hash, int[] density) {
+        int bucket = bucketOf(hash);
+        int first = bucket * WAYS;
+
+        synchronized (locks[bucket % STRIPES]) {
+            int target = -1;
+            for (int entry = first; entry < first + WAYS; ++entry) {
+                if (occupied[entry] && hashes[entry] == hash) return;
+                if (!occupied[entry] && target < 0) target = entry;
+            }
+
+            if (target < 0) {
+                // CLOCK: give recently used entries a second chance
+                int hand = hands[bucket];
+                while (referenced[first + hand]) {
+                    referenced[first + hand] = false;
+                    hand = (hand + 1) % WAYS;
+                }
+                target = first + hand;
+                hands[bucket] = (byte) ((hand + 1) % WAYS);
+                evictions.increment();
+            }
+
+            hashes[target] = hash;
+            occupied[target] = true;
+            referenced[target] = false;
+            System.arraycopy(density, 0, densities, target * CELLS, CELLS);
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the number of positions the cache can hold
+     *
+     * @return
+     */
+    public int capacity() {
+        return buckets * WAYS;
+    }
+
+    private int bucketOf(long hash) {
+        return (int) Long.remainderUnsigned(hash ^ (hash >>> 32), buckets);
+    }
+}
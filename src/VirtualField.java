@@ -1,7 +1,6 @@
 import java.awt.*;
 import java.util.*;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 /**
  * This Virtual Field class is visualization of how the AI player views the battleship board
@@ -22,13 +21,72 @@ public class VirtualField {
     // List of alive ships
     public ArrayList<Integer> aliveShips;
 
+    // The size of the default board
+    public static final int DEFAULT_BOARD_SIZE = 10;
+
+    // Fixed-point scale of the diagonal skew multiplier
+    static final int SKEW_SCALE = 1 << 8;
+
     // The size of the board
-    public final int BOARD_SIZE = 10;
+    public final int BOARD_SIZE;
 
     private int maxHits;
 
+    // Lengths of the fleet, for fork
+    private final int[] shipSizes;
+
+    // Length of the smallest ship of the fleet
+    private int smallestShip;
+
+    // Miss cells as a bitmask (bit x * BOARD_SIZE + y), the key of the opening book
+    private long missLo, missHi;
+
+    // Number of Hit and Sunk cells
+    private int hitOrSunkCells;
+
+    // Hit cells, so that looking for a ship to sink only visits the cells that were hit
+    private final BitSet hitCells;
+
+    // Zobrist hash of the cell states, see TranspositionCache
+    private long boardHash;
+
+    // Density maps shared between bots, null to always ask the density engine
+    private TranspositionCache transpositionCache;
+
+    // Buffer for density maps going in and out of the cache
+    private int[] cachedDensity;
+
+    // Points popped from the sink stack since the field was created
+    private long sinkStackPops;
+
     private ShipDirection sinkHitDirection;
 
+    // Engine computing the heat map, null in ProbabilityMode.Scan
+    private final DensityEngine densityEngine;
+
+    // Flat storage behind the board, only used in BoardLayout.Packed
+    private final PackedBoard packed;
+
+    // Row and column kernel for ProbabilityMode.Scan in BoardLayout.Packed, null otherwise
+    private final DensityKernel densityKernel;
+
+    // Number of alive ships of each length, the input of the density kernel and the board scan
+    private final int[] multiplicity;
+
+    // Placements of the board size, walked by the board scan
+    private final PlacementIndex placementIndex;
+
+    // One shared Point per cell, indexed by x * BOARD_SIZE + y, so the shot path never allocates a Point
+    private final Point[] points;
+
+    // Placements of one length covering each cell, for countPlacements without an engine counting lengths
+    private int[] placementCover;
+
+    // Order of the neighbours of a first hit on the sink stack
+    private SinkOrder sinkOrder = SinkOrder.Densest;
+
+    // Reusable buffer of packed cells for the neighbours of a cell
+    private final int[] surroundingCells = new int[4];
 
     /**
      * Construction for Virtual Field
@@ -36,24 +94,134 @@ public class VirtualField {
      * @param shipSizes
      */
     public VirtualField(int[] shipSizes) {
+        this(shipSizes, ProbabilityMode.Scan);
+    }
+
+    /**
+     * Construction for Virtual Field with a given way of computing the heat map
+     *
+     * @param shipSizes
+     * @param probabilityMode
+     */
+    public VirtualField(int[] shipSizes, ProbabilityMode probabilityMode) {
+        this(shipSizes, probabilityMode, BoardLayout.Cells);
+    }
+
+    /**
+     * Construction for Virtual Field with a given way of computing and storing the heat map
+     *
+     * @param shipSizes
+     * @param probabilityMode
+     * @param boardLayout
+     */
+    public VirtualField(int[] shipSizes, ProbabilityMode probabilityMode, BoardLayout boardLayout) {
+        this(DEFAULT_BOARD_SIZE, shipSizes, probabilityMode, boardLayout);
+    }
+
+    /**
+     * Construction for Virtual Field on a board of any size
+     *
+     * @param boardSize
+     * @param shipSizes
+     * @param probabilityMode
+     * @param boardLayout
+     */
+    public VirtualField(int boardSize, int[] shipSizes, ProbabilityMode probabilityMode, BoardLayout boardLayout) {
+        this(boardSize, shipSizes, createDensityEngine(probabilityMode, boardSize), boardLayout);
+    }
+
+    /**
+     * Construction for Virtual Field with a density engine configured by the caller, e.g. a MonteCarloField with
+     * its own budget
+     *
+     * @param shipSizes
+     * @param densityEngine engine computing the heat map, null to scan the board
+     * @param boardLayout
+     */
+    public VirtualField(int[] shipSizes, DensityEngine densityEngine, BoardLayout boardLayout) {
+        this(DEFAULT_BOARD_SIZE, shipSizes, densityEngine, boardLayout);
+    }
+
+    /**
+     * Construction for Virtual Field on a board of any size with a density engine configured by the caller
+     *
+     * @param boardSize
+     * @param shipSizes
+     * @param densityEngine engine computing the heat map for that board size, null to scan the board
+     * @param boardLayout
+     */
+    public VirtualField(int boardSize, int[] shipSizes, DensityEngine densityEngine, BoardLayout boardLayout) {
+        if (boardSize < 3) throw new IllegalArgumentException("Invalid board size: " + boardSize);
+
+        this.BOARD_SIZE = boardSize;
+        this.multiplicity = new int[BOARD_SIZE + 1];
+        this.placementIndex = PlacementIndex.of(BOARD_SIZE);
+        this.hitCells = new BitSet(BOARD_SIZE * BOARD_SIZE);
+        this.densityEngine = densityEngine;
+        this.packed = boardLayout == BoardLayout.Packed ? new PackedBoard(BOARD_SIZE) : null;
+        this.densityKernel = densityEngine == null && packed != null && BOARD_SIZE == DensityKernel.BOARD_SIZE
+                ? DensityKernel.create() : null;
         this.hitPoints = new ArrayList<>();
         this.sinkHitDirection = ShipDirection.To_Be_Determined;
 
-        // Initialize all cells in the 2D board
+        // Initialize all cells in the 2D board, as views over the packed storage in BoardLayout.Packed
         this.board = new Cell[this.BOARD_SIZE][this.BOARD_SIZE];
+        this.points = new Point[this.BOARD_SIZE * this.BOARD_SIZE];
         for (int x = 0; x < this.BOARD_SIZE; ++x)
-            for (int y = 0; y < this.BOARD_SIZE; ++y)
-                this.board[x][y] = new Cell();
+            for (int y = 0; y < this.BOARD_SIZE; ++y) {
+                this.board[x][y] = packed != null ? new Cell(packed, x * BOARD_SIZE + y) : new Cell();
+                this.points[x * BOARD_SIZE + y] = new Point(x, y);
+            }
 
         // Initialize the array of alive ships
+        this.shipSizes = shipSizes.clone();
         this.aliveShips = new ArrayList<>();
+        this.smallestShip = Integer.MAX_VALUE;
         for (int size : shipSizes) {
+            if (size < 1 || size > BOARD_SIZE) throw new IllegalArgumentException("Invalid ship size: " + size);
+
             aliveShips.add(size);
             maxHits = getMaxHits() + size;
+            smallestShip = Math.min(smallestShip, size);
         }
 
     }
 
+    /**
+     * Create the density engine of a probability mode
+     *
+     * @param probabilityMode
+     * @return the engine, null in ProbabilityMode.Scan
+     */
+    public static DensityEngine createDensityEngine(ProbabilityMode probabilityMode) {
+        return createDensityEngine(probabilityMode, DEFAULT_BOARD_SIZE);
+    }
+
+    /**
+     * Create the density engine of a probability mode for a board size. Bitboard counts on a GridField when the
+     * board does not fit in a bitboard; Exact and MonteCarlo only support the default board
+     *
+     * @param probabilityMode
+     * @param boardSize
+     * @return the engine, null in ProbabilityMode.Scan
+     */
+    public static DensityEngine createDensityEngine(ProbabilityMode probabilityMode, int boardSize) {
+        if (boardSize != BitboardField.BOARD_SIZE) {
+            return switch (probabilityMode) {
+                case Scan -> null;
+                case Bitboard -> new GridField(boardSize);
+                default -> throw new IllegalArgumentException(probabilityMode + " only supports a " + BitboardField.BOARD_SIZE + " x " + BitboardField.BOARD_SIZE + " board");
+            };
+        }
+
+        return switch (probabilityMode) {
+            case Scan -> null;
+            case Bitboard -> new BitboardField();
+            case Exact -> new ExactField();
+            case MonteCarlo -> new MonteCarloField();
+        };
+    }
+
     /**
      * Gets an adjacent point by view
      *
@@ -100,6 +268,37 @@ public class VirtualField {
                 .collect(Collectors.toCollection(ArrayList<Point>::new));
     }
 
+    /**
+     * Get the shared Point of a cell. The returned Point must not be modified
+     *
+     * @param x
+     * @param y
+     * @return
+     */
+    public final Point pointAt(int x, int y) {
+        return points[x * BOARD_SIZE + y];
+    }
+
+    /**
+     * Write the packed cells (x * BOARD_SIZE + y) of the adjacent Empty cells into a buffer, in the same order as
+     * getAvailableSurroundingPoints
+     *
+     * @param x
+     * @param y
+     * @param cells buffer of at least 4 cells
+     * @return the number of cells written
+     */
+    public final int getAvailableSurroundingCells(int x, int y, int[] cells) {
+        int count = 0;
+
+        if (x > 0 && board[x - 1][y].isCellEmpty()) cells[count++] = (x - 1) * BOARD_SIZE + y;
+        if (x < BOARD_SIZE - 1 && board[x + 1][y].isCellEmpty()) cells[count++] = (x + 1) * BOARD_SIZE + y;
+        if (y < BOARD_SIZE - 1 && board[x][y + 1].isCellEmpty()) cells[count++] = x * BOARD_SIZE + y + 1;
+        if (y > 0 && board[x][y - 1].isCellEmpty()) cells[count++] = x * BOARD_SIZE + y - 1;
+
+        return count;
+    }
+
     /**
      * This method tells whether ship can be placed at a cell or not
      *
@@ -116,7 +315,7 @@ public class VirtualField {
      * @param shot
      */
     public void handleShotHit(Point shot) {
-        board[shot.x][shot.y].setCellState(CellState.Hit);
+        setCellState(shot.x, shot.y, CellState.Hit);
 
         if (hitPoints.isEmpty()) {
             sinkHitDirection = ShipDirection.To_Be_Determined;
@@ -126,18 +325,20 @@ public class VirtualField {
             hitPoints.add(shot);
             setupSinkStack(shot);
         } else {
-            ArrayList<Point> surroundingPoints = getAvailableSurroundingPoints(shot.x, shot.y);
+            int count = getAvailableSurroundingCells(shot.x, shot.y, surroundingCells);
             hitPoints.add(shot);
 
             if (shot.x == hitPoints.get(0).x) {
                 sinkHitDirection = ShipDirection.Horizontal;
 
-                surroundingPoints.stream().filter(p -> p.x == shot.x).forEach(p -> sunkShips.push(p));
+                for (int i = 0; i < count; ++i)
+                    if (surroundingCells[i] / BOARD_SIZE == shot.x) sunkShips.push(points[surroundingCells[i]]);
 
             } else if (shot.y == hitPoints.get(0).y) {
                 sinkHitDirection = ShipDirection.Vertical;
 
-                surroundingPoints.stream().filter(p -> p.y == shot.y).forEach(p -> sunkShips.push(p));
+                for (int i = 0; i < count; ++i)
+                    if (surroundingCells[i] % BOARD_SIZE == shot.y) sunkShips.push(points[surroundingCells[i]]);
             }
         }
     }
@@ -149,6 +350,9 @@ public class VirtualField {
      * @return
      */
     public int getNumberOfCellsWithState(CellState state) {
+        if (packed != null) return packed.count(state);
+        if (state == CellState.Hit) return hitCells.cardinality();
+
         int result = 0;
 
         for (Cell[] row : board)
@@ -159,50 +363,191 @@ public class VirtualField {
         return result;
     }
 
+    /**
+     * Set the state of a cell, keeping the density engine in sync
+     *
+     * @param x
+     * @param y
+     * @param state
+     */
+    public void setCellState(int x, int y, CellState state) {
+        CellState previous = board[x][y].getCellState();
+        if (previous == CellState.Hit || previous == CellState.Sunk) --hitOrSunkCells;
+        if (state == CellState.Hit || state == CellState.Sunk) ++hitOrSunkCells;
+
+        int cell = x * BOARD_SIZE + y;
+        hitCells.set(cell, state == CellState.Hit);
+
+        // The opening book and the transposition cache only know the default board
+        if (BOARD_SIZE == DEFAULT_BOARD_SIZE) {
+            boardHash ^= TranspositionCache.cellKey(cell, previous) ^ TranspositionCache.cellKey(cell, state);
+
+            long bit = 1L << (cell & 63);
+            if (cell < 64) missLo = state == CellState.Miss ? missLo | bit : missLo & ~bit;
+            else missHi = state == CellState.Miss ? missHi | bit : missHi & ~bit;
+        }
+
+        board[x][y].setCellState(state);
+        if (densityEngine != null) densityEngine.setCellState(x, y, state);
+    }
+
+    /**
+     * Returns true while every shot so far has missed
+     *
+     * @return
+     */
+    public boolean isMissOnly() {
+        return hitOrSunkCells == 0;
+    }
+
+    /**
+     * Returns the low 64 cells of the Miss cells
+     *
+     * @return
+     */
+    public long getMissLo() {
+        return missLo;
+    }
+
+    /**
+     * Returns the high 36 cells of the Miss cells
+     *
+     * @return
+     */
+    public long getMissHi() {
+        return missHi;
+    }
+
+    /**
+     * Returns the Zobrist hash of the position: the cell states and the alive ships
+     *
+     * @return
+     */
+    public long getStateHash() {
+        return boardHash ^ TranspositionCache.fleetHash(aliveShips);
+    }
+
+    /**
+     * Share density maps with other bots through a cache. The cache must hold maps of the same probability mode
+     *
+     * @param transpositionCache the cache, null for none
+     */
+    public void setTranspositionCache(TranspositionCache transpositionCache) {
+        if (transpositionCache != null && BOARD_SIZE != DEFAULT_BOARD_SIZE)
+            throw new IllegalArgumentException("Transposition cache needs a " + DEFAULT_BOARD_SIZE + " x " + DEFAULT_BOARD_SIZE + " board");
+
+        this.transpositionCache = transpositionCache;
+        if (transpositionCache != null && cachedDensity == null) cachedDensity = new int[BOARD_SIZE * BOARD_SIZE];
+    }
+
     /**
      * Update probability on the heat map after every shot is done
      */
     public void updateProbability() {
+        if (densityEngine != null) {
+            updateProbabilityFromEngine();
+            return;
+        }
+
+        if (densityKernel != null) {
+            updateProbabilityFromKernel();
+            return;
+        }
+
         // Reset the probability of all cells on the board
         resetProbability();
+        countAliveShips();
 
-        boolean canPlace;
+        for (int length = 1; length <= BOARD_SIZE; ++length) {
+            if (multiplicity[length] == 0) continue;
 
-        for (Integer length : aliveShips) {
-            for (int y = 0; y < BOARD_SIZE; ++y) {
-                for (int x = 0; x < BOARD_SIZE - length + 1; ++x) {
-                    // Update probability based on length of ship horizontally
-                    canPlace = true;
-                    for (int l = 0; l < length; ++l)
-                        if (cannotPlaceShip(board[y][x + l])) {
-                            canPlace = false;
-                            break;
-                        }
-
-                    if (canPlace) {
-                        for (int l = 0; l < length; ++l) board[y][x + l].incrementProbability();
-                    }
+            // Every placement is checked once and counted for each alive ship of its length
+            PlacementIndex.Placements all = placementIndex.get(length);
+            for (int p = 0; p < all.count(); ++p) {
+                int x0 = all.start[p] / BOARD_SIZE, y0 = all.start[p] % BOARD_SIZE;
+                int dx = all.step[p] == 1 ? 0 : 1, dy = 1 - dx;
 
-                    // Update probability based on length of ship vertically
-                    canPlace = true;
-                    for (int l = 0; l < length; ++l)
-                        if (cannotPlaceShip(board[x + l][y])) {
-                            canPlace = false;
-                            break;
-                        }
+                boolean canPlace = true;
+                for (int l = 0; l < length && canPlace; ++l) canPlace = !cannotPlaceShip(board[x0 + l * dx][y0 + l * dy]);
+                if (!canPlace) continue;
 
-                    if (canPlace) {
-                        for (int l = 0; l < length; ++l) board[x + l][y].incrementProbability();
-                    }
-                }
+                for (int l = 0; l < length; ++l) board[x0 + l * dx][y0 + l * dy].addProbability(multiplicity[length]);
             }
         }
     }
 
+    /**
+     * Count the alive ships of each length into multiplicity
+     */
+    private void countAliveShips() {
+        for (int length = 0; length <= BOARD_SIZE; ++length) multiplicity[length] = 0;
+
+        // Lengths that cannot fit on the board never contribute to the density
+        for (int i = 0; i < aliveShips.size(); ++i) {
+            int length = aliveShips.get(i);
+            if (length >= 1 && length <= BOARD_SIZE) ++multiplicity[length];
+        }
+    }
+
+    /**
+     * Update probability with the density kernel, the same counts as the placement loop of updateProbability
+     */
+    private void updateProbabilityFromKernel() {
+        countAliveShips();
+        densityKernel.computeDensity(packed.states, multiplicity, packed.density);
+    }
+
+    /**
+     * Update probability from the density engine
+     */
+    private void updateProbabilityFromEngine() {
+        if (transpositionCache != null) {
+            updateProbabilityFromCache();
+            return;
+        }
+
+        densityEngine.updateDensity(aliveShips);
+
+        if (packed != null) {
+            densityEngine.copyDensity(packed.density);
+            return;
+        }
+
+        for (int x = 0; x < BOARD_SIZE; ++x)
+            for (int y = 0; y < BOARD_SIZE; ++y)
+                board[x][y].setProbability(densityEngine.getDensity(x, y));
+    }
+
+    /**
+     * Update probability from the transposition cache, asking the density engine only for positions not cached yet.
+     * The engines keep their own board in sync on every setCellState, so skipping them on a hit is safe
+     */
+    private void updateProbabilityFromCache() {
+        long hash = getStateHash();
+        int[] density = packed != null ? packed.density : cachedDensity;
+
+        if (!transpositionCache.get(hash, density)) {
+            densityEngine.updateDensity(aliveShips);
+            densityEngine.copyDensity(density);
+            transpositionCache.put(hash, density);
+        }
+
+        if (packed != null) return;
+
+        for (int x = 0; x < BOARD_SIZE; ++x)
+            for (int y = 0; y < BOARD_SIZE; ++y)
+                board[x][y].setProbability(density[x * BOARD_SIZE + y]);
+    }
+
     /**
      * This method resets all probability of all cells on the board
      */
     public void resetProbability() {
+        if (packed != null) {
+            packed.resetDensity();
+            return;
+        }
+
         for (int x = 0; x < BOARD_SIZE; ++x)
             for (int i = 0; i < BOARD_SIZE; ++i)
                 board[x][i].resetProbability();
@@ -214,54 +559,118 @@ public class VirtualField {
      * @return
      */
     public Point getNextShot() {
-        Point nextShot = null;
-        double maxProbability = -1;
-        ArrayList<Point> maxProbabilityCells = new ArrayList<>();
-        int hits = getNumberOfCellsWithState(CellState.Hit) + getNumberOfCellsWithState(CellState.Sunk);
+        int nextShot = -1;
+        int hits = hitOrSunkCells;
+
+        if (hits < getMaxHits() - 1) nextShot = getDensestCell();
 
-        if (hits < getMaxHits() - 1)
+        if (hits == getMaxHits() - 1 || nextShot >= 0 && board[nextShot / BOARD_SIZE][nextShot % BOARD_SIZE].getProbability() == 0) {
             for (int x = 0; x < BOARD_SIZE; ++x)
                 for (int y = 0; y < BOARD_SIZE; ++y)
-                    if (board[x][y].isCellEmpty() && board[x][y].getProbability() > maxProbability) {
-                        nextShot = new Point(x, y);
-                        maxProbability = board[x][y].getProbability();
-                        maxProbabilityCells.clear();
-                        maxProbabilityCells.add(nextShot);
-                    } else if (board[x][y].isCellEmpty() && board[x][y].getProbability() == maxProbability) {
-                        nextShot = new Point(x, y);
-                        maxProbabilityCells.add(nextShot);
+                    if (board[x][y].isCellHit() || board[x][y].isCellSunk()) {
+                        if (getAvailableSurroundingCells(x, y, surroundingCells) > 0)
+                            return points[surroundingCells[0]];
                     }
 
-        if (hits == getMaxHits() - 1 || maxProbability == 0) {
-            ArrayList<Point> surroundingPoints;
+            // A last ship of length 1 touches no hit, so it is hunted like any other
+            if (nextShot < 0) nextShot = getDensestCell();
+        }
+
+        return nextShot == -1 ? null : points[nextShot];
+    }
+
+    /**
+     * Find the empty cell with the highest probability. The last cell in x-major order wins ties
+     *
+     * @return the cell, x * BOARD_SIZE + y, or -1 if no cell is empty
+     */
+    private int getDensestCell() {
+        int nextShot = -1;
+        double maxProbability = -1;
+
+        if (packed != null) {
+            byte empty = (byte) CellState.Empty.ordinal();
+            for (int index = 0; index < BOARD_SIZE * BOARD_SIZE; ++index)
+                if (packed.states[index] == empty && packed.density[index] >= maxProbability) {
+                    nextShot = index;
+                    maxProbability = packed.density[index];
+                }
+        } else {
             for (int x = 0; x < BOARD_SIZE; ++x)
                 for (int y = 0; y < BOARD_SIZE; ++y)
-                    if (board[x][y].isCellHit() || board[x][y].isCellSunk()) {
-                        surroundingPoints = getAvailableSurroundingPoints(x, y);
-                        if (surroundingPoints.size() > 0) return surroundingPoints.get(0);
+                    if (board[x][y].isCellEmpty() && board[x][y].getProbability() >= maxProbability) {
+                        nextShot = x * BOARD_SIZE + y;
+                        maxProbability = board[x][y].getProbability();
                     }
         }
 
         return nextShot;
     }
 
+    /**
+     * Collect the densest empty cells, densest first. Like getNextShot, the last cell in x-major order wins ties
+     *
+     * @param cells     receives the cells, x * BOARD_SIZE + y
+     * @param densities receives their probability
+     * @param max       number of cells wanted
+     * @return the number of cells collected, fewer than max only if fewer cells are empty
+     */
+    public int getDensestCells(int[] cells, double[] densities, int max) {
+        int count = 0;
+
+        // Density a cell must beat once max cells are collected
+        double floor = Double.NEGATIVE_INFINITY;
+
+        for (int index = BOARD_SIZE * BOARD_SIZE - 1; index >= 0; --index) {
+            double density = getEmptyCellDensity(index);
+            if (density < 0 || density <= floor) continue;
+
+            int i = count < max ? count++ : count - 1;
+            for (; i > 0 && densities[i - 1] < density; --i) {
+                cells[i] = cells[i - 1];
+                densities[i] = densities[i - 1];
+            }
+            cells[i] = index;
+            densities[i] = density;
+
+            if (count == max) floor = densities[max - 1];
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the probability of a cell if it is empty, -1 otherwise
+     */
+    private double getEmptyCellDensity(int index) {
+        if (packed != null) return packed.states[index] == CellState.Empty.ordinal() ? packed.density[index] : -1;
+
+        Cell cell = board[index / BOARD_SIZE][index % BOARD_SIZE];
+        return cell.isCellEmpty() ? cell.getProbability() : -1;
+    }
+
     /**
      * After a ship has been sunken, this method sets the state of cells occupied by the ship
      *
      * @param shipLength
+     * @return the number of the ship's placement among those of its length, along y first (x * perLine + y), then
+     * along x (BOARD_SIZE * perLine + x * BOARD_SIZE + y), with perLine = BOARD_SIZE - shipLength + 1
      */
-    public void setCellStateSunk(int shipLength) {
+    public int setCellStateSunk(int shipLength) {
         Point last = hitPoints.get(hitPoints.size() - 1);
         Point secondLast = hitPoints.get(Math.max(hitPoints.size() - 2, 0));
+        int perLine = BOARD_SIZE - shipLength + 1;
 
         if (last.x == secondLast.x) {
             int startY = getStartY(last);
 
-            IntStream.range(startY, startY + shipLength).forEach(y -> board[last.x][y].setCellState(CellState.Sunk));
+            for (int y = startY; y < startY + shipLength; ++y) setCellState(last.x, y, CellState.Sunk);
+            return last.x * perLine + startY;
         } else {
             int startX = getStartX(last);
 
-            IntStream.range(startX, startX + shipLength).forEach(x -> board[x][last.y].setCellState(CellState.Sunk));
+            for (int x = startX; x < startX + shipLength; ++x) setCellState(x, last.y, CellState.Sunk);
+            return BOARD_SIZE * perLine + startX * BOARD_SIZE + last.y;
         }
     }
 
@@ -271,7 +680,10 @@ public class VirtualField {
      */
     public int getStartY(Point last) {
         int startY = last.y;
-        for (Point p : hitPoints) if (p.x == last.x && p.y < startY) startY = p.y;
+        for (int i = 0; i < hitPoints.size(); ++i) {
+            Point p = hitPoints.get(i);
+            if (p.x == last.x && p.y < startY) startY = p.y;
+        }
 
         return startY;
     }
@@ -282,7 +694,10 @@ public class VirtualField {
      */
     public int getStartX(Point last) {
         int startX = last.x;
-        for (Point p : hitPoints) if (p.y == last.y && p.x < startX) startX = p.x;
+        for (int i = 0; i < hitPoints.size(); ++i) {
+            Point p = hitPoints.get(i);
+            if (p.y == last.y && p.x < startX) startX = p.x;
+        }
 
         return startX;
     }
@@ -306,6 +721,118 @@ public class VirtualField {
         return sunkLength;
     }
 
+    /**
+     * Returns the number of points popped from the sink stack so far
+     *
+     * @return
+     */
+    public long getSinkStackPops() {
+        return sinkStackPops;
+    }
+
+    /**
+     * Count the legal placements of one ship of a length, from the density engine when it counts that length and by
+     * scanning the board otherwise
+     *
+     * @param length
+     * @param cells  cells x * BOARD_SIZE + y to count the covering placements of
+     * @param count  number of cells
+     * @param cover  receives the number of legal placements covering each of the cells
+     * @return the number of legal placements on the whole board
+     */
+    public int countPlacements(int length, int[] cells, int count, int[] cover) {
+        int placements = densityEngine != null ? densityEngine.getPlacementCount(length) : -1;
+        if (placements >= 0) {
+            for (int i = 0; i < count; ++i) cover[i] = densityEngine.getCoverage(length, cells[i]);
+            return placements;
+        }
+
+        if (placementCover == null) placementCover = new int[BOARD_SIZE * BOARD_SIZE];
+        Arrays.fill(placementCover, 0);
+        placements = 0;
+
+        if (length < 1 || length > BOARD_SIZE) {
+            for (int i = 0; i < count; ++i) cover[i] = 0;
+            return 0;
+        }
+
+        PlacementIndex.Placements all = placementIndex.get(length);
+        for (int p = 0; p < all.count(); ++p) {
+            int step = all.step[p];
+            boolean canPlace = true;
+            for (int l = 0, cell = all.start[p]; l < length && canPlace; ++l, cell += step)
+                canPlace = !cannotPlaceShip(board[cell / BOARD_SIZE][cell % BOARD_SIZE]);
+            if (!canPlace) continue;
+
+            ++placements;
+            for (int l = 0, cell = all.start[p]; l < length; ++l, cell += step) ++placementCover[cell];
+        }
+
+        for (int i = 0; i < count; ++i) cover[i] = placementCover[cells[i]];
+        return placements;
+    }
+
+    /**
+     * Take a copy of the solver state, to come back to it with restore
+     *
+     * @return
+     */
+    public FieldSnapshot snapshot() {
+        byte[] states;
+        if (packed != null) {
+            states = packed.states.clone();
+        } else {
+            states = new byte[BOARD_SIZE * BOARD_SIZE];
+            for (int x = 0; x < BOARD_SIZE; ++x)
+                for (int y = 0; y < BOARD_SIZE; ++y) states[x * BOARD_SIZE + y] = (byte) board[x][y].getCellState().ordinal();
+        }
+
+        return new FieldSnapshot(BOARD_SIZE, states, hitPoints, sunkShips, aliveShips, sinkHitDirection);
+    }
+
+    /**
+     * Bring the field back to a snapshot. Only the cells whose state differs go through setCellState, so the density
+     * engine, the hashes and the counters follow; the probabilities are left for the next updateProbability
+     *
+     * @param snapshot a snapshot of a field of the same board size
+     */
+    public void restore(FieldSnapshot snapshot) {
+        if (snapshot.getBoardSize() != BOARD_SIZE)
+            throw new IllegalArgumentException("Snapshot of a " + snapshot.getBoardSize() + " x " + snapshot.getBoardSize() + " board");
+
+        for (int x = 0; x < BOARD_SIZE; ++x)
+            for (int y = 0; y < BOARD_SIZE; ++y) {
+                CellState state = snapshot.getCellState(x * BOARD_SIZE + y);
+                if (board[x][y].getCellState() != state) setCellState(x, y, state);
+            }
+
+        hitPoints.clear();
+        for (int i = 0; i < snapshot.getHitPointCount(); ++i) hitPoints.add(points[snapshot.getHitPoint(i)]);
+
+        sunkShips.clear();
+        for (int i = 0; i < snapshot.getSinkStackSize(); ++i) sunkShips.push(points[snapshot.getSinkStackPoint(i)]);
+
+        aliveShips.clear();
+        for (int i = 0; i < snapshot.getAliveShipCount(); ++i) aliveShips.add(snapshot.getAliveShip(i));
+
+        sinkHitDirection = snapshot.getSinkHitDirection();
+    }
+
+    /**
+     * Create an independent field in the same state as this one, with the same board, fleet and layout
+     *
+     * @param densityEngine engine of the new field, a fresh one of the same kind as this field's, null to scan the board
+     * @return
+     */
+    public VirtualField fork(DensityEngine densityEngine) {
+        VirtualField field = new VirtualField(BOARD_SIZE, shipSizes, densityEngine,
+                packed != null ? BoardLayout.Packed : BoardLayout.Cells);
+        field.setTranspositionCache(transpositionCache);
+        field.setSinkOrder(sinkOrder);
+        field.restore(snapshot());
+        return field;
+    }
+
     /**
      * This method will try to sink a ship has it has been found
      *
@@ -315,6 +842,7 @@ public class VirtualField {
         do {
             if (sunkShips.size() > 0) {
                 Point best = sunkShips.pop();
+                ++sinkStackPops;
                 if (!board[best.x][best.y].isCellEmpty()) {
                     continue;
                 } else if (hitPoints.isEmpty()) {
@@ -336,30 +864,52 @@ public class VirtualField {
                 }
             }
 
-            for (int x = 0; x < BOARD_SIZE; ++x)
-                for (int y = 0; y < BOARD_SIZE; ++y)
-                    if (board[x][y].getCellState() == CellState.Hit) {
-                        setupSinkStack(new Point(x, y));
-                        if (sunkShips.size() > 0) {
-                            return sunkShips.pop();
-                        }
-                    }
+            // Hit cells in x-major order
+            for (int cell = hitCells.nextSetBit(0); cell >= 0; cell = hitCells.nextSetBit(cell + 1)) {
+                setupSinkStack(points[cell]);
+                if (sunkShips.size() > 0) {
+                    ++sinkStackPops;
+                    return sunkShips.pop();
+                }
+            }
 
             return null;
         } while (true);
     }
 
+    /**
+     * Set the order in which the neighbours of a first hit are tried
+     *
+     * @param sinkOrder
+     */
+    public void setSinkOrder(SinkOrder sinkOrder) {
+        this.sinkOrder = sinkOrder;
+    }
+
     /**
      * This method initializes the sink stack when a shot is hit
      *
      * @param point
      */
     public void setupSinkStack(Point point) {
-        ArrayList<Point> potentialCellsToShot = getAvailableSurroundingPoints(point.x, point.y);
-        potentialCellsToShot.sort(Comparator.comparingDouble(shot -> board[shot.x][shot.y].getProbability()));
+        int count = getAvailableSurroundingCells(point.x, point.y, surroundingCells);
+
+        // Stable insertion sort by ascending probability, so the most probable cell ends on top of the stack.
+        // Sparsest sorts by descending probability instead, Neighbour leaves the cells as they are
+        int sign = sinkOrder == SinkOrder.Densest ? 1 : sinkOrder == SinkOrder.Sparsest ? -1 : 0;
+        for (int i = 1; i < count && sign != 0; ++i) {
+            int cell = surroundingCells[i];
+            double probability = sign * board[cell / BOARD_SIZE][cell % BOARD_SIZE].getProbability();
+            int j = i - 1;
+            while (j >= 0 && sign * board[surroundingCells[j] / BOARD_SIZE][surroundingCells[j] % BOARD_SIZE].getProbability() > probability) {
+                surroundingCells[j + 1] = surroundingCells[j];
+                --j;
+            }
+            surroundingCells[j + 1] = cell;
+        }
 
         sunkShips.clear();
-        for (Point shot : potentialCellsToShot) sunkShips.push(shot);
+        for (int i = 0; i < count; ++i) sunkShips.push(points[surroundingCells[i]]);
     }
 
     /**
@@ -368,30 +918,60 @@ public class VirtualField {
      * increases 20% of hitting the smallest ship when it is the only remaining one
      */
     public ArrayList<Point> diagonalSkew() {
+        int[] cells = new int[BOARD_SIZE * BOARD_SIZE];
+        int count = diagonalSkew(cells);
+
         ArrayList<Point> potentialShots = new ArrayList<>();
+        for (int i = 0; i < count; ++i) potentialShots.add(new Point(cells[i] / BOARD_SIZE, cells[i] % BOARD_SIZE));
 
-        for (int y = 2; y < BOARD_SIZE - 1; y += 2) {
-            for (int x = 1; x < BOARD_SIZE - 1; x += 2) {
-                if (canPlaceShip(y, x)) {
-                    potentialShots.add(new Point(x, y));
-                    board[x][y].setProbability(board[x][y].getProbability() * 1.5);
-                }
-            }
-        }
+        return potentialShots;
+    }
 
-        for (int y = 1; y < BOARD_SIZE - 1; y += 2) {
-            for (int x = 2; x < BOARD_SIZE - 1; x += 2) {
-                if (canPlaceShip(y, x)) {
-                    potentialShots.add(new Point(x, y));
-                    board[x][y].setProbability(board[x][y].getProbability() * 1.5);
-                }
-            }
+    /**
+     * Diagonal skew writing the packed cells (x * BOARD_SIZE + y) of the potential shots into a buffer
+     *
+     * @param potentialShots buffer of at least BOARD_SIZE * BOARD_SIZE cells
+     * @return the number of cells written
+     */
+    public int diagonalSkew(int[] potentialShots) {
+        return diagonalSkew(potentialShots, 1.5);
+    }
+
+    /**
+     * Diagonal skew multiplying the probability of the potential shots by a given factor. The probabilities are
+     * ints in BoardLayout.Packed, so every cell is scaled by SKEW_SCALE and the potential shots by the multiplier in
+     * fixed point, which keeps the order of the other cells and the multiplier to 1 / SKEW_SCALE
+     *
+     * @param potentialShots buffer of at least BOARD_SIZE * BOARD_SIZE cells
+     * @param multiplier
+     * @return the number of cells written
+     */
+    public int diagonalSkew(int[] potentialShots, double multiplier) {
+        int count = 0;
+
+        for (int y = 2; y < BOARD_SIZE - 1; y += 2)
+            for (int x = 1; x < BOARD_SIZE - 1; x += 2)
+                if (canPlaceShip(y, x)) potentialShots[count++] = x * BOARD_SIZE + y;
+
+        for (int y = 1; y < BOARD_SIZE - 1; y += 2)
+            for (int x = 2; x < BOARD_SIZE - 1; x += 2)
+                if (canPlaceShip(y, x)) potentialShots[count++] = x * BOARD_SIZE + y;
+
+        if (multiplier == 1 || count == 0) return count;
+
+        for (int x = 0; x < BOARD_SIZE; ++x)
+            for (int y = 0; y < BOARD_SIZE; ++y)
+                board[x][y].setProbability(board[x][y].getProbability() * SKEW_SCALE);
+
+        long factor = Math.round(multiplier * SKEW_SCALE);
+        for (int i = 0; i < count; ++i) {
+            Cell cell = board[potentialShots[i] / BOARD_SIZE][potentialShots[i] % BOARD_SIZE];
+            cell.setProbability(cell.getProbability() / SKEW_SCALE * factor);
         }
 
-        return potentialShots;
+        return count;
     }
 
-
     /**
      * Returns true if adjacent cells from up, down, left, right directions and itself are Empty
      *
@@ -435,4 +1015,22 @@ public class VirtualField {
     public int getMaxHits() {
         return maxHits;
     }
+
+    /**
+     * Returns the number of Hit and Sunk cells
+     *
+     * @return
+     */
+    public int getHitOrSunkCells() {
+        return hitOrSunkCells;
+    }
+
+    /**
+     * Returns the length of the smallest ship of the fleet
+     *
+     * @return
+     */
+    public int getSmallestShip() {
+        return smallestShip;
+    }
 }
@@ -0,0 +1,187 @@
+import java.util.List;
+
+/**
+ * Density engine weighing every placement by a learned PlacementPrior.
+ *
+ * The bookkeeping is GridField's, over the same PlacementIndex, for square boards of any size: the legality of each placement of every alive
+ * length, updated incrementally as cells are blocked. Instead of one per placement, each legal placement adds its
+ * weight from the prior to the cells it covers, so the density of a cell is the weighted number of placements
+ * covering it. With a prior that has seen no game every weight is PlacementPrior.SCALE and the bot takes the same
+ * shots as with GridField.
+ *
+ * The weights are read once, when the engine is created, so a prior updated or reloaded during a game only applies
+ * from the next game on.
+ *
+ * @author Man Vu & Huy Mac
+ */
+
+public final class WeightedField implements DensityEngine {
+    private final int boardSize;
+    private final int cells;
+
+    // Placements of the board size, shared with every other engine on it
+    private final PlacementIndex index;
+
+    // Weights of the prior when the engine was created, and the first entry of each length
+    private final int[] weights;
+    private final int[] offsets;
+
+    // Miss and Sunk cells
+    private final boolean[] blocked;
+
+    // Legality of every placement of the lengths that are currently tracked
+    private final boolean[][] legal;
+
+    // Weight of the legal placements of each tracked length covering each cell
+    private final int[][] cover;
+
+    // Number of alive ships of each length
+    private final int[] multiplicity;
+
+    // Density of each cell, the sum over alive ships of cover
+    private final int[] density;
+
+    // Scratch buffer for syncing the alive ships
+    private final int[] aliveCount;
+
+    /**
+     * Constructor for an empty board with no alive ships
+     *
+     * @param prior prior of the board size to play on
+     */
+    public WeightedField(PlacementPrior prior) {
+        this.boardSize = prior.getBoardSize();
+        this.cells = boardSize * boardSize;
+        this.index = PlacementIndex.of(boardSize);
+        this.weights = prior.getWeights();
+        this.offsets = new int[boardSize + 1];
+        for (int length = 1; length <= boardSize; ++length) offsets[length] = prior.getOffset(length);
+
+        this.blocked = new boolean[cells];
+        this.legal = new boolean[boardSize + 1][];
+        this.cover = new int[boardSize + 1][];
+        this.multiplicity = new int[boardSize + 1];
+        this.density = new int[cells];
+        this.aliveCount = new int[boardSize + 1];
+    }
+
+    @Override
+    public void setCellState(int x, int y, CellState state) {
+        int cell = x * boardSize + y;
+        boolean wasBlocked = blocked[cell];
+        blocked[cell] = state == CellState.Miss || state == CellState.Sunk;
+
+        if (blocked[cell] && !wasBlocked) {
+            blockCell(cell);
+        } else if (!blocked[cell] && wasBlocked) {
+            rebuild();
+        }
+    }
+
+    @Override
+    public void updateDensity(List<Integer> aliveShips) {
+        for (int length = 1; length <= boardSize; ++length) aliveCount[length] = 0;
+
+        // Lengths that cannot fit on the board never contribute to the density
+        for (int i = 0; i < aliveShips.size(); ++i) {
+            int length = aliveShips.get(i);
+            if (length >= 1 && length <= boardSize) ++aliveCount[length];
+        }
+
+        for (int length = 1; length <= boardSize; ++length) {
+            int delta = aliveCount[length] - multiplicity[length];
+            if (delta == 0) continue;
+
+            if (legal[length] == null) track(length);
+
+            int[] lengthCover = cover[length];
+            for (int cell = 0; cell < cells; ++cell) density[cell] += delta * lengthCover[cell];
+
+            multiplicity[length] = aliveCount[length];
+            if (multiplicity[length] == 0) {
+                legal[length] = null;
+                cover[length] = null;
+            }
+        }
+    }
+
+    @Override
+    public int getDensity(int x, int y) {
+        return density[x * boardSize + y];
+    }
+
+    @Override
+    public void copyDensity(int[] destination) {
+        System.arraycopy(density, 0, destination, 0, cells);
+    }
+
+    /**
+     * Start tracking the legal placements of a length from scratch
+     *
+     * @param length
+     */
+    private void track(int length) {
+        PlacementIndex.Placements all = index.get(length);
+        boolean[] lengthLegal = new boolean[all.count()];
+        int[] lengthCover = new int[cells];
+
+        for (int p = 0; p < lengthLegal.length; ++p) {
+            int start = all.start[p];
+            int step = all.step[p];
+
+            boolean canPlace = true;
+            for (int l = 0, cell = start; l < length && canPlace; ++l, cell += step) canPlace = !blocked[cell];
+            if (!canPlace) continue;
+
+            lengthLegal[p] = true;
+            int weight = weights[offsets[length] + p];
+            for (int l = 0, cell = start; l < length; ++l, cell += step) lengthCover[cell] += weight;
+        }
+
+        legal[length] = lengthLegal;
+        cover[length] = lengthCover;
+    }
+
+    /**
+     * Subtract every legal placement running through a newly blocked cell
+     *
+     * @param cell
+     */
+    private void blockCell(int cell) {
+        for (int length = 1; length <= boardSize; ++length) {
+            if (legal[length] == null) continue;
+
+            PlacementIndex.Placements all = index.get(length);
+            for (int i = all.firstThrough[cell]; i < all.firstThrough[cell + 1]; ++i) invalidate(all, all.through[i]);
+        }
+    }
+
+    private void invalidate(PlacementIndex.Placements all, int placement) {
+        int length = all.length;
+        if (!legal[length][placement]) return;
+
+        legal[length][placement] = false;
+        int[] lengthCover = cover[length];
+        int weight = weights[offsets[length] + placement];
+        int densityWeight = multiplicity[length] * weight;
+        int step = all.step[placement];
+        for (int l = 0, cell = all.start[placement]; l < length; ++l, cell += step) {
+            lengthCover[cell] -= weight;
+            density[cell] -= densityWeight;
+        }
+    }
+
+    /**
+     * Recompute every tracked length, used only when a cell is unblocked
+     */
+    private void rebuild() {
+        for (int cell = 0; cell < cells; ++cell) density[cell] = 0;
+
+        for (int length = 1; length <= boardSize; ++length) {
+            if (legal[length] == null) continue;
+
+            track(length);
+            for (int cell = 0; cell < cells; ++cell) density[cell] += multiplicity[length] * cover[length][cell];
+        }
+    }
+}